@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import org.irmacard.credentials.CredentialsException;
+import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
+import org.irmacard.credentials.idemix.proofs.ProofD;
+import org.irmacard.credentials.idemix.proofs.ProofList;
+
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking facade over the verification methods of {@link ProofList},
+ * {@link ProofD} and {@link IdemixIssuer}. The verifications run on a
+ * dedicated pool of daemon threads with a bounded queue, so that a burst of
+ * requests cannot occupy the threads of the caller. When the queue is full a
+ * request is rejected immediately with a {@link RejectedExecutionException},
+ * so that the caller can answer it with an error instead of waiting.
+ *
+ * Results are returned as {@link Future}s. Optionally a {@link Callback} can
+ * be passed, which is invoked on the crypto thread once the verification has
+ * completed.
+ */
+public class AsyncVerifier {
+	/**
+	 * Receives the outcome of an asynchronous verification.
+	 */
+	public interface Callback<T> {
+		void onSuccess(T result);
+		void onFailure(Throwable t);
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param threads		the number of threads performing verifications
+	 * @param queueCapacity	the maximum number of verifications waiting for a thread
+	 */
+	public AsyncVerifier(int threads, int queueCapacity) {
+		if (threads < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Number of threads and queue capacity must be positive");
+		}
+
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "idemix-verifier-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Verifies the proofs asynchronously, see {@link ProofList#verify(BigInteger, BigInteger, boolean)}.
+	 * @throws RejectedExecutionException if the queue is full or the verifier has been shut down
+	 */
+	public Future<Boolean> verify(final ProofList proofs, final BigInteger context, final BigInteger nonce,
+			final boolean shouldBeBound, Callback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return proofs.verify(context, nonce, shouldBeBound);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> verify(ProofList proofs, BigInteger context, BigInteger nonce, boolean shouldBeBound) {
+		return verify(proofs, context, nonce, shouldBeBound, null);
+	}
+
+	/**
+	 * Verifies the disclosure proof asynchronously, see
+	 * {@link ProofD#verify(IdemixPublicKey, BigInteger, BigInteger)}.
+	 * @throws RejectedExecutionException if the queue is full or the verifier has been shut down
+	 */
+	public Future<Boolean> verify(final ProofD proof, final IdemixPublicKey pk, final BigInteger context,
+			final BigInteger nonce, Callback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return proof.verify(pk, context, nonce);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> verify(ProofD proof, IdemixPublicKey pk, BigInteger context, BigInteger nonce) {
+		return verify(proof, pk, context, nonce, null);
+	}
+
+	/**
+	 * Verifies the commitments of an issuance asynchronously, see
+	 * {@link IdemixIssuer#verifyCommitments(IssueCommitmentMessage, BigInteger)}. If the commitments are
+	 * not correct, {@link Future#get()} throws an {@link ExecutionException} caused by the
+	 * {@link CredentialsException}.
+	 * @throws RejectedExecutionException if the queue is full or the verifier has been shut down
+	 */
+	public Future<Void> verifyCommitments(final IdemixIssuer issuer, final IssueCommitmentMessage msg,
+			final BigInteger nonce1, Callback<Void> callback) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws CredentialsException {
+				issuer.verifyCommitments(msg, nonce1);
+				return null;
+			}
+		}, callback);
+	}
+
+	public Future<Void> verifyCommitments(IdemixIssuer issuer, IssueCommitmentMessage msg, BigInteger nonce1) {
+		return verifyCommitments(issuer, msg, nonce1, null);
+	}
+
+	private <T> Future<T> submit(Callable<T> task, final Callback<T> callback) {
+		FutureTask<T> future = new FutureTask<T>(task) {
+			@Override
+			protected void done() {
+				if (callback == null || isCancelled())
+					return;
+
+				try {
+					callback.onSuccess(get());
+				} catch (ExecutionException e) {
+					callback.onFailure(e.getCause());
+				} catch (InterruptedException e) {
+					// Cannot happen, as the task has completed
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		try {
+			executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			throw e;
+		}
+
+		return future;
+	}
+
+	/**
+	 * Stops accepting new verifications; the ones already submitted are still performed.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	/**
+	 * @return the number of verifications waiting for a thread
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getQueueCapacity() {
+		return executor.getQueue().size() + executor.getQueue().remainingCapacity();
+	}
+
+	/**
+	 * @return the number of verifications that were rejected because the queue was full or the verifier was shut down
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+}
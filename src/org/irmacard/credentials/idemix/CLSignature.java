@@ -31,10 +31,15 @@
 package org.irmacard.credentials.idemix;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.security.SecureRandom;
 
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.RandomnessProvider;
 
 /**
  * Represents a bare Camenisch-Lysyanskaya signature. The block of messages, or
@@ -45,21 +50,31 @@ public class CLSignature {
 	private BigInteger e;
 	private BigInteger v;
 
+	// Q = A^e (mod n), known to the signer after signing, see getQ()
+	private transient BigInteger Q;
+
 	public CLSignature(BigInteger A, BigInteger e, BigInteger v) {
 		this.A = A;
 		this.e = e;
 		this.v = v;
 	}
 
+	CLSignature(BigInteger A, BigInteger e, BigInteger v, BigInteger Q) {
+		this(A, e, v);
+		this.Q = Q;
+	}
+
 	public CLSignature() {
 	}
 
 	public void setA(BigInteger A) {
 		this.A = A;
+		this.Q = null;
 	}
 
 	public void set_e(BigInteger e) {
 		this.e = e;
+		this.Q = null;
 	}
 
 	public void set_v(BigInteger v) {
@@ -79,8 +94,7 @@ public class CLSignature {
 	 *            a block of messages
 	 */
 	public static CLSignature signMessageBlock(IdemixSecretKey sk, IdemixPublicKey pk, List<BigInteger> ms) {
-		List<BigInteger> Rs = pk.getGeneratorsR();
-		return signMessageBlockAndCommitment(sk, pk, BigInteger.ONE, ms, Rs);
+		return signMessageBlockAndCommitment(sk, pk, BigInteger.ONE, ms, 0);
 	}
 
 	/**
@@ -101,36 +115,14 @@ public class CLSignature {
 	 */
 	public static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms) {
 		// Skip the first generator
-		List<BigInteger> Rs = pk.getGeneratorsR().subList(1, pk.getGeneratorsR().size());
-		return signMessageBlockAndCommitment(sk, pk, U, ms, Rs);
+		return signMessageBlockAndCommitment(sk, pk, U, ms, 1);
 	}
 
-	protected static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms, List<BigInteger> Rs) {
-		BigInteger n = pk.getModulus();
-		IdemixSystemParameters params = pk.getSystemParameters();
-
-		BigInteger R = Crypto.representToBases(Rs, ms, n);
-
-		SecureRandom rnd = new SecureRandom();
-
-		BigInteger v_tilde = new BigInteger(params.get_l_v() - 1, rnd);
-		BigInteger two_l_v = new BigInteger("2").pow(params.get_l_v() - 1);
-		BigInteger v = two_l_v.add(v_tilde);
-
-		// Q = inv( S^v * R * U) * Z
-		BigInteger numerator = pk.getGeneratorS().modPow(v, n).multiply(R).multiply(U).mod(n);
-		BigInteger Q = pk.getGeneratorZ().multiply(numerator.modInverse(n)).mod(n);
-
-		BigInteger e = Crypto.probablyPrimeInBitRange(params.get_l_e() - 1,
-				params.get_l_e_prime() - 1);
-
-		// TODO: this is probably open to side channel attacks, maybe use a
-		// safe (raw) RSA signature?
-		BigInteger order = sk.get_p_prime_q_prime();
-		BigInteger e_inv = e.modInverse(order);
-		BigInteger A = Q.modPow(e_inv, n);
-
-		return new CLSignature(A, e, v);
+	/**
+	 * Signs the messages ms using the generators R_{first}, R_{first + 1}, ...
+	 */
+	protected static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms, int first) {
+		return new IdemixIssuer.Issuance(sk, pk).sign(U, ms, first);
 	}
 
 	public boolean verify(IdemixPublicKey pk, List<BigInteger> ms) {
@@ -139,33 +131,165 @@ public class CLSignature {
 
 	public boolean verifyDistributed(IdemixPublicKey pk, List<BigInteger> ms,
 			List<BigInteger> public_sks) {
-		IdemixSystemParameters params = pk.getSystemParameters();
 		BigInteger n = pk.getModulus();
 
-		// Check that e in [2^{l_e - 1}, 2^{l_e - 1} + 2^{l_e_prime -1}]
-		BigInteger start = Crypto.TWO.pow(params.get_l_e() - 1);
-		BigInteger end = start.add(Crypto.TWO.pow(params.get_l_e_prime() - 1));
-		if(e.compareTo(start) < 0 || e.compareTo(end) > 0) {
-			System.out.println("Prime in signature out of range");
+		if (!checkRange_e(pk.getSystemParameters())) {
 			return false;
 		}
 
 		// Q = A^e * R * S^v
-		BigInteger R = Crypto.representToBases(pk.getGeneratorsR(), ms, n);
+		BigInteger Q = representToPublicKey(pk, ms, 0, this.v, this.A, this.e);
 
 		// Add in the public_sks
 		if(public_sks != null) {
 			for(BigInteger public_sk : public_sks) {
-				R = R.multiply(public_sk).mod(n);
+				Q = Q.multiply(public_sk).mod(n);
 			}
 		}
 
-		BigInteger Ae = this.A.modPow(e, n);
-		BigInteger Sv = pk.getGeneratorS().modPow(this.v, n);
-		BigInteger Q = Ae.multiply(R).multiply(Sv).mod(n);
+		return pk.getGeneratorZ().equals(Q);
+	}
 
+	/**
+	 * Check that e in [2^{l_e - 1}, 2^{l_e - 1} + 2^{l_e_prime -1}]
+	 */
+	private boolean checkRange_e(IdemixSystemParameters params) {
+		BigInteger start = Crypto.TWO.pow(params.get_l_e() - 1);
+		BigInteger end = start.add(Crypto.TWO.pow(params.get_l_e_prime() - 1));
+		if(e.compareTo(start) < 0 || e.compareTo(end) > 0) {
+			System.out.println("Prime in signature out of range");
+			return false;
+		}
 
-		return pk.getGeneratorZ().equals(Q);
+		return true;
+	}
+
+	/**
+	 * Verifies many signatures on the given blocks of messages against the same
+	 * public key at once. Instead of checking Z = A_i^{e_i} S^{v_i} R^{ms_i} for
+	 * each signature, it checks the product of these equations raised to random
+	 * exponents d_i of l_statzk bits:
+	 * <pre>
+	 *   Z^{sum_i d_i} = prod_i A_i^{e_i d_i} * S^{sum_i v_i d_i} * prod_j R_j^{sum_i ms_i[j] d_i}
+	 * </pre>
+	 * so that S and the R_j are exponentiated only once for the whole batch, in
+	 * one multi-exponentiation together with the A_i. If the batch fails it is
+	 * split in halves, recursively, to find the failing signatures.
+	 * <p>
+	 * A batch in Z_n^* can only show that each equation holds up to a factor of
+	 * order two. Since Z, S and the R_j are quadratic residues, the A of a valid
+	 * signature has Jacobi symbol (A|n) = 1, so signatures for which this is not
+	 * the case are rejected before batching; this rules out all such factors
+	 * except -1. As (-1|n) = 1 for the moduli used here (p = q = 3 mod 4), a
+	 * signature whose A is replaced by n - A cannot be told apart from a valid
+	 * one in a batch, so the batch checks both sides up to sign, which amounts to
+	 * squaring them. This method therefore verifies each signature up to the sign
+	 * of A: it accepts n - A wherever it accepts A, also when a signature ends up
+	 * being checked on its own, and it rejects every other invalid signature
+	 * except with probability about 2^{-l_statzk}. The signature with n - A is
+	 * not valid but is as good as the original to anyone holding it; use
+	 * {@link #verify(IdemixPublicKey, List)} where the exact value of A matters.
+	 *
+	 * @param pk			the public key
+	 * @param signatures	the signatures
+	 * @param ms			the block of messages of each signature
+	 * @return				the indices of the signatures that do not verify, in increasing order
+	 */
+	public static List<Integer> verifyBatch(IdemixPublicKey pk, List<CLSignature> signatures,
+			List<List<BigInteger>> ms) {
+		if (signatures.size() != ms.size()) {
+			throw new IllegalArgumentException("Need a block of messages for every signature");
+		}
+
+		List<Integer> failed = new ArrayList<>();
+		List<Integer> candidates = new ArrayList<>();
+		for (int i = 0; i < signatures.size(); i++) {
+			if (ms.get(i).size() > pk.getGeneratorsR().size()) {
+				throw new RuntimeException("Not enough bases to represent exponents");
+			}
+
+			CLSignature signature = signatures.get(i);
+			if (signature.checkRange_e(pk.getSystemParameters())
+					&& Crypto.jacobiSymbol(signature.A, pk.getModulus()) == 1) {
+				candidates.add(i);
+			} else {
+				failed.add(i);
+			}
+		}
+
+		verifyBatch(pk, signatures, ms, candidates, failed);
+
+		Collections.sort(failed);
+		return failed;
+	}
+
+	private static void verifyBatch(IdemixPublicKey pk, List<CLSignature> signatures,
+			List<List<BigInteger>> ms, List<Integer> indices, List<Integer> failed) {
+		if (indices.isEmpty()) {
+			return;
+		}
+
+		if (indices.size() == 1) {
+			int i = indices.get(0);
+			if (!signatures.get(i).verifyUpToSign(pk, ms.get(i))) {
+				failed.add(i);
+			}
+			return;
+		}
+
+		if (batchEquationHolds(pk, signatures, ms, indices)) {
+			return;
+		}
+
+		int half = indices.size() / 2;
+		verifyBatch(pk, signatures, ms, indices.subList(0, half), failed);
+		verifyBatch(pk, signatures, ms, indices.subList(half, indices.size()), failed);
+	}
+
+	private static boolean batchEquationHolds(IdemixPublicKey pk, List<CLSignature> signatures,
+			List<List<BigInteger>> ms, List<Integer> indices) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger[] deltas = RandomnessProvider.getInstance().randomBigIntegers(
+				params.get_l_statzk(), indices.size());
+
+		BigInteger Zexp = BigInteger.ZERO;
+		BigInteger Sexp = BigInteger.ZERO;
+		Map<Integer, BigInteger> Rexps = new HashMap<>();
+		List<BigInteger> bases = new ArrayList<>(indices.size());
+		List<BigInteger> exps = new ArrayList<>(indices.size());
+
+		for (int k = 0; k < indices.size(); k++) {
+			int i = indices.get(k);
+			CLSignature signature = signatures.get(i);
+			BigInteger delta = deltas[k];
+
+			Zexp = Zexp.add(delta);
+			Sexp = Sexp.add(signature.v.multiply(delta));
+			List<BigInteger> block = ms.get(i);
+			for (int j = 0; j < block.size(); j++) {
+				BigInteger term = block.get(j).multiply(delta);
+				BigInteger sum = Rexps.get(j);
+				Rexps.put(j, sum == null ? term : sum.add(term));
+			}
+
+			bases.add(signature.A);
+			exps.add(signature.e.multiply(delta));
+		}
+
+		BigInteger lhs = pk.getGeneratorZ().modPow(Zexp, pk.getModulus());
+		BigInteger rhs = pk.representToGenerators(Sexp, Rexps, bases, exps);
+		return lhs.equals(rhs) || lhs.equals(pk.getModulus().subtract(rhs));
+	}
+
+	/**
+	 * As {@link #verify(IdemixPublicKey, List)}, but also accepts the signature
+	 * if A is replaced by n - A, which multiplies A^e by -1 as e is odd. The
+	 * range of e must have been checked already.
+	 */
+	private boolean verifyUpToSign(IdemixPublicKey pk, List<BigInteger> ms) {
+		BigInteger Q = representToPublicKey(pk, ms, 0, v, A, e);
+		BigInteger Z = pk.getGeneratorZ();
+		return Z.equals(Q) || Z.equals(pk.getModulus().subtract(Q));
 	}
 
 	/**
@@ -176,19 +300,52 @@ public class CLSignature {
 		IdemixSystemParameters params = pk.getSystemParameters();
 		BigInteger n = pk.getModulus();
 
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = RandomnessProvider.random();
 
 		BigInteger randomizer = new BigInteger(params.get_l_r_a(), rnd);
-		BigInteger A_prime = A.multiply(pk.getGeneratorS().modPow(randomizer, n)).mod(n);
+		BigInteger A_prime = A.multiply(pk.modPowS(randomizer)).mod(n);
 		BigInteger v_prime = v.subtract(e.multiply(randomizer));
 
 		return new CLSignature(A_prime, e, v_prime);
 	}
 
+	/**
+	 * Computes R_{first}^{ms[0]} * R_{first + 1}^{ms[1]} * ... * S^v (mod n),
+	 * times base^{exp} if base is not null. S^v is omitted if v is null.
+	 */
+	static BigInteger representToPublicKey(IdemixPublicKey pk, List<BigInteger> ms, int first,
+			BigInteger v, BigInteger base, BigInteger exp) {
+		if (pk.getGeneratorsR().size() - first < ms.size()) {
+			throw new RuntimeException("Not enough bases to represent exponents");
+		}
+
+		Map<Integer, BigInteger> rExponents = new HashMap<>();
+		for (int i = 0; i < ms.size(); i++) {
+			rExponents.put(first + i, ms.get(i));
+		}
+
+		List<BigInteger> bases = new ArrayList<>(1);
+		List<BigInteger> exps = new ArrayList<>(1);
+		if (base != null) {
+			bases.add(base);
+			exps.add(exp);
+		}
+
+		return pk.representToGenerators(v, rExponents, bases, exps);
+	}
+
 	public BigInteger getA() {
 		return A;
 	}
 
+	/**
+	 * Returns Q = A^e (mod n) if this signature was just created by the signer,
+	 * who computed it while signing, or null otherwise. It is not serialized.
+	 */
+	BigInteger getQ() {
+		return Q;
+	}
+
 	public BigInteger get_e() {
 		return e;
 	}
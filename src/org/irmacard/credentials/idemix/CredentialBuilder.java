@@ -32,7 +32,6 @@ package org.irmacard.credentials.idemix;
 
 import java.math.BigInteger;
 import java.util.List;
-import java.security.SecureRandom;
 import java.util.Vector;
 
 import org.irmacard.credentials.CredentialsException;
@@ -42,6 +41,7 @@ import org.irmacard.credentials.idemix.proofs.ProofListBuilder;
 import org.irmacard.credentials.idemix.proofs.ProofU;
 import org.irmacard.credentials.idemix.proofs.ProofUBuilder;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.RandomnessProvider;
 
 public class CredentialBuilder {
 	// State
@@ -152,8 +152,8 @@ public class CredentialBuilder {
 			v_prime = Crypto.randomUnsignedInteger(params.get_l_v_prime());
 
 			// U = S^{v_prime} * R_0^{s}
-			BigInteger Sv = pk.getGeneratorS().modPow(v_prime, n);
-			BigInteger R0s = pk.getGeneratorR(0).modPow(s, n);
+			BigInteger Sv = pk.modPowS(v_prime);
+			BigInteger R0s = pk.modPowR(0, s);
 			U = Sv.multiply(R0s).mod(n);
 		}
 
@@ -166,7 +166,7 @@ public class CredentialBuilder {
 	}
 
 	public static BigInteger createReceiverNonce(IdemixSystemParameters params) {
-		return new BigInteger(params.get_l_statzk(), new SecureRandom());
+		return new BigInteger(params.get_l_statzk(), RandomnessProvider.random());
 	}
 
 	public static BigInteger createReceiverNonce(IdemixPublicKey pk) {
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+
+import org.irmacard.credentials.idemix.util.BackgroundPool;
+
+/**
+ * A bounded pool of signature exponents e together with their inverses
+ * e^{-1} mod p'q' for one issuer secret key, kept filled by background
+ * threads. Signing with a pair from the pool leaves only the exponentiations
+ * on the request path. The primes themselves are taken from the
+ * {@link PrimePool} if one is running.
+ * <p>
+ * A pool is started for a secret key using
+ * {@link #start(IdemixSecretKey, IdemixSystemParameters, int, int)}; signing
+ * with that key then draws from it. When there is no pool or it is empty, the
+ * pair is computed on the spot.
+ */
+public class ExponentPairPool extends BackgroundPool<ExponentPairPool.ExponentPair> {
+	private final IdemixSecretKey sk;
+	private final IdemixSystemParameters params;
+
+	/**
+	 * A prime e and its inverse e^{-1} mod p'q'.
+	 */
+	public static final class ExponentPair {
+		private final BigInteger e;
+		private final BigInteger e_inverse;
+
+		ExponentPair(BigInteger e, BigInteger e_inverse) {
+			this.e = e;
+			this.e_inverse = e_inverse;
+		}
+
+		public BigInteger get_e() {
+			return e;
+		}
+
+		public BigInteger get_e_inverse() {
+			return e_inverse;
+		}
+	}
+
+	private ExponentPairPool(IdemixSecretKey sk, IdemixSystemParameters params, int capacity, int threads) {
+		super("ExponentPairPool", capacity, threads);
+
+		this.sk = sk;
+		this.params = params;
+	}
+
+	/**
+	 * Starts a pool for the given secret key, unless one is already running for
+	 * it, in which case that one is returned.
+	 *
+	 * @param sk		the secret key
+	 * @param params	the system parameters of the key, determining the range of e
+	 * @param capacity	the maximum number of pairs kept in the pool
+	 * @param threads	the number of background threads filling the pool
+	 * @return			the pool for the given secret key
+	 */
+	public static ExponentPairPool start(IdemixSecretKey sk, IdemixSystemParameters params,
+			int capacity, int threads) {
+		synchronized (sk) {
+			ExponentPairPool pool = sk.getExponentPairPool();
+			if (pool != null) {
+				return pool;
+			}
+
+			pool = new ExponentPairPool(sk, params, capacity, threads);
+			pool.start();
+			sk.setExponentPairPool(pool);
+			return pool;
+		}
+	}
+
+	/**
+	 * @return the running pool for the given secret key, or null
+	 */
+	public static ExponentPairPool get(IdemixSecretKey sk) {
+		return sk.getExponentPairPool();
+	}
+
+	/**
+	 * Returns a fresh pair for signing with the given secret key, from its pool
+	 * if there is one.
+	 */
+	static ExponentPair next(IdemixSecretKey sk, IdemixSystemParameters params) {
+		ExponentPairPool pool = sk.getExponentPairPool();
+		if (pool != null) {
+			return pool.take();
+		}
+
+		return generate(sk, params);
+	}
+
+	private static ExponentPair generate(IdemixSecretKey sk, IdemixSystemParameters params) {
+		BigInteger e = PrimePool.nextPrime(params);
+		return new ExponentPair(e, e.modInverse(sk.get_p_prime_q_prime()));
+	}
+
+	@Override
+	protected ExponentPair generate() {
+		return generate(sk, params);
+	}
+
+	/**
+	 * Stops the background threads and detaches this pool from its secret key,
+	 * after which signing no longer uses it.
+	 */
+	@Override
+	public void stop() {
+		synchronized (sk) {
+			if (sk.getExponentPairPool() == this) {
+				sk.setExponentPairPool(null);
+			}
+		}
+
+		super.stop();
+	}
+}
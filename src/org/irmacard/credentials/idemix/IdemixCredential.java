@@ -54,6 +54,9 @@ public class IdemixCredential {
 
 	private transient int hashCode = 0;
 
+	// Optional pool of randomized signatures for disclosure proofs
+	private transient volatile RandomizedSignaturePool randomizedSignaturePool;
+
 	public IdemixCredential(IdemixPublicKey issuer_pk,
 			List<BigInteger> attributes, CLSignature signature) {
 		this.issuer_pk = issuer_pk;
@@ -113,6 +116,14 @@ public class IdemixCredential {
 		return (ProofD) builder.createProof(context, nonce1);
 	}
 
+	RandomizedSignaturePool getRandomizedSignaturePool() {
+		return randomizedSignaturePool;
+	}
+
+	void setRandomizedSignaturePool(RandomizedSignaturePool pool) {
+		this.randomizedSignaturePool = pool;
+	}
+
 	public int getNrAttributes() {
 		return attributes.size();
 	}
@@ -121,8 +121,9 @@ public class IdemixIssuer {
 			U = msg.getCommitmentProof().getU();
 		}
 
-		CLSignature signature = signCommitmentAndAttributes(U, attrs);
-		ProofS proof = proveSignature(signature, msg.getNonce2());
+		Issuance issuance = new Issuance(sk, pk);
+		CLSignature signature = issuance.sign(U, attrs, 1);
+		ProofS proof = issuance.prove(context, msg.getNonce2());
 
 		return new IssueSignatureMessage(signature, proof);
 	}
@@ -141,7 +142,7 @@ public class IdemixIssuer {
 	protected CLSignature signCommitmentAndAttributes(BigInteger U,
 			List<BigInteger> attrs) {
 
-		return CLSignature.signMessageBlockAndCommitment(sk, pk, U, attrs);
+		return new Issuance(sk, pk).sign(U, attrs, 1);
 	}
 
 	/**
@@ -157,25 +158,98 @@ public class IdemixIssuer {
 	 * @return A proof of knowledge of e^{-1}
 	 */
 	public ProofS proveSignature(CLSignature signature, BigInteger n_2) {
-		BigInteger n = pk.getModulus();
-		BigInteger Q = signature.getA().modPow(signature.get_e(), n);
-		BigInteger group_modulus = sk.get_p_prime_q_prime();
-		BigInteger e_inverse = signature.get_e().modInverse(group_modulus);
+		Issuance issuance = new Issuance(sk, pk);
+		issuance.resume(signature);
+		return issuance.prove(context, n_2);
+	}
+
+	public BigInteger getContext() {
+		return context;
+	}
+
+	/**
+	 * The working set of a single issuance: it creates the signature and then
+	 * the proof of its correctness, keeping the values that both need (Q = A^e,
+	 * e^{-1} and the group order p'q') instead of recomputing them. All
+	 * exponentiations that involve the secret key use its CRT representation,
+	 * so that an issuance costs the exponentiations for Q, one half-size
+	 * exponentiation for A and one for the commitment in the proof.
+	 */
+	static class Issuance {
+		private final IdemixSecretKey sk;
+		private final IdemixPublicKey pk;
+		private final BigInteger group_modulus;
+
+		private CLSignature signature;
+		private BigInteger Q;
+		private BigInteger e_inverse;
+
+		Issuance(IdemixSecretKey sk, IdemixPublicKey pk) {
+			this.sk = sk;
+			this.pk = pk;
+			this.group_modulus = sk.get_p_prime_q_prime();
+		}
 
-		BigInteger e_commit = Crypto
-				.randomElementMultiplicativeGroup(group_modulus);
-		BigInteger A_commit = Q.modPow(e_commit, n);
+		/**
+		 * Signs the commitment U and the messages ms using the generators
+		 * R_{first}, R_{first + 1}, ...
+		 */
+		CLSignature sign(BigInteger U, List<BigInteger> ms, int first) {
+			BigInteger n = pk.getModulus();
+			IdemixSystemParameters params = pk.getSystemParameters();
+
+			// v and S^v do not depend on the request, so they may be precomputed
+			VPool.VPair vPair = VPool.next(pk);
+			BigInteger v = vPair.get_v();
+
+			// Q = inv( S^v * R * U) * Z
+			BigInteger numerator = CLSignature.representToPublicKey(pk, ms, first, null, null, null)
+					.multiply(vPair.get_Sv()).mod(n)
+					.multiply(U).mod(n);
+			Q = pk.getGeneratorZ().multiply(numerator.modInverse(n)).mod(n);
+
+			ExponentPairPool.ExponentPair pair = ExponentPairPool.next(sk, params);
+			BigInteger e = pair.get_e();
+			e_inverse = pair.get_e_inverse();
+
+			// TODO: this is probably open to side channel attacks, maybe use a
+			// safe (raw) RSA signature?
+			BigInteger A = sk.modPow(Q, e_inverse);
+
+			signature = new CLSignature(A, e, v, Q);
+			return signature;
+		}
 
-		BigInteger c = Crypto.sha256Hash(Crypto.asn1Encode(context, Q,
-				signature.getA(), n_2, A_commit));
+		/**
+		 * Continues from an existing signature, recomputing Q only if the
+		 * signature does not carry it from signing.
+		 */
+		void resume(CLSignature signature) {
+			this.signature = signature;
+
+			Q = signature.getQ();
+			if (Q == null) {
+				Q = sk.modPow(signature.getA(), signature.get_e());
+			}
+			e_inverse = signature.get_e().modInverse(group_modulus);
+		}
 
-		BigInteger e_response = e_commit.subtract(c.multiply(e_inverse))
-				.mod(group_modulus);
+		/**
+		 * Proof of the knowledge of $e^{-1}$ in the signature, see
+		 * {@link IdemixIssuer#proveSignature(CLSignature, BigInteger)}.
+		 */
+		ProofS prove(BigInteger context, BigInteger n_2) {
+			BigInteger e_commit = Crypto
+					.randomElementMultiplicativeGroup(group_modulus);
+			BigInteger A_commit = sk.modPow(Q, e_commit);
 
-		return new ProofS(c, e_response);
-	}
+			BigInteger c = Crypto.sha256Hash(Crypto.asn1Encode(context, Q,
+					signature.getA(), n_2, A_commit));
 
-	public BigInteger getContext() {
-		return context;
+			BigInteger e_response = e_commit.subtract(c.multiply(e_inverse))
+					.mod(group_modulus);
+
+			return new ProofS(c, e_response);
+		}
 	}
 }
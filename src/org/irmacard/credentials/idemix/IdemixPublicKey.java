@@ -31,6 +31,8 @@
 package org.irmacard.credentials.idemix;
 
 import org.irmacard.credentials.PublicKey;
+import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.FixedBaseComb;
 import org.irmacard.credentials.info.ConfigurationParser;
 import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.IssuerDescription;
@@ -62,6 +64,13 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 	private int counter;
 	private Date expiryDate;
 
+	// Optional fixed-base tables for S and the R_i, see precomputeGeneratorTables()
+	private transient volatile FixedBaseComb S_table;
+	private transient volatile FixedBaseComb[] R_tables;
+
+	// Optional pool of precomputed (v, S^v) pairs for signing, see VPool
+	private transient volatile VPool vPool;
+
 	public IdemixPublicKey(BigInteger n, BigInteger Z, BigInteger S,
 			List<BigInteger> R) {
 
@@ -82,6 +91,8 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 
 	public void set_n(BigInteger n) {
 		this.n = n;
+		clearGeneratorTables();
+		invalidateVPool();
 	}
 
 	public void set_Z(BigInteger Z) {
@@ -90,11 +101,14 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 
 	public void set_S(BigInteger S) {
 		this.S = S;
+		clearGeneratorTables();
+		invalidateVPool();
 	}
 
 	public void set_Ri(int i, BigInteger Ri) {
 		System.out.println("Setting R" + i + ": " + Ri);
 		R.set(i, Ri);
+		clearGeneratorTables();
 	}
 
 	/**
@@ -175,6 +189,158 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 		return R;
 	}
 
+	/**
+	 * Builds fixed-base exponentiation tables for the generators S and R_i,
+	 * after which {@link #modPowS(BigInteger)} and {@link #modPowR(int, BigInteger)}
+	 * are considerably faster than BigInteger.modPow(). The tables take some
+	 * time to build and a few hundred kilobytes of memory per generator (for
+	 * 2048 bit keys), so this is worthwhile only for keys that are used often,
+	 * such as by an issuer or verifier. Calling this more than once has no effect.
+	 */
+	public synchronized void precomputeGeneratorTables() {
+		if (S_table != null) {
+			return;
+		}
+
+		IdemixSystemParameters params = getSystemParameters();
+
+		// The largest exponents are the responses in the proofs of knowledge
+		FixedBaseComb[] tables = new FixedBaseComb[R.size()];
+		for (int i = 0; i < R.size(); i++) {
+			tables[i] = new FixedBaseComb(R.get(i), n, params.get_l_s_commit() + 1);
+		}
+
+		R_tables = tables;
+		S_table = new FixedBaseComb(S, n, params.get_l_v_commit() + 1);
+	}
+
+	public boolean hasGeneratorTables() {
+		return S_table != null;
+	}
+
+	/**
+	 * @return the table for S built by {@link #precomputeGeneratorTables()}, or null if there is none
+	 */
+	public FixedBaseComb getGeneratorTableS() {
+		return S_table;
+	}
+
+	/**
+	 * @return the table for R_i built by {@link #precomputeGeneratorTables()}, or null if there is none
+	 */
+	public FixedBaseComb getGeneratorTableR(int i) {
+		FixedBaseComb[] tables = R_tables;
+		return tables != null ? tables[i] : null;
+	}
+
+	/**
+	 * Installs previously built generator tables, e.g. ones that were stored in a cache file, instead of building
+	 * them using {@link #precomputeGeneratorTables()}. The contents of the tables are spot-checked when they are
+	 * created using {@link FixedBaseComb#fromTable(BigInteger, BigInteger, int, int, int, BigInteger[][])}.
+	 * @throws IllegalArgumentException if the tables are not for the generators of this key
+	 */
+	public synchronized void setGeneratorTables(FixedBaseComb S_table, FixedBaseComb[] R_tables) {
+		if (R_tables.length != R.size() || !S_table.getModulus().equals(n) || !S_table.getBase().equals(S.mod(n))) {
+			throw new IllegalArgumentException("Tables do not match the generators of this key");
+		}
+		for (int i = 0; i < R.size(); i++) {
+			if (!R_tables[i].getModulus().equals(n) || !R_tables[i].getBase().equals(R.get(i).mod(n))) {
+				throw new IllegalArgumentException("Tables do not match the generators of this key");
+			}
+		}
+
+		this.R_tables = R_tables.clone();
+		this.S_table = S_table;
+	}
+
+	/**
+	 * Discards the tables built by {@link #precomputeGeneratorTables()}.
+	 */
+	public synchronized void clearGeneratorTables() {
+		S_table = null;
+		R_tables = null;
+	}
+
+	/**
+	 * Returns S^{exponent} (mod n), using the precomputed table if there is one.
+	 */
+	public BigInteger modPowS(BigInteger exponent) {
+		FixedBaseComb table = S_table;
+		if (table != null) {
+			return table.pow(exponent);
+		}
+
+		return S.modPow(exponent, n);
+	}
+
+	/**
+	 * Returns R_i^{exponent} (mod n), using the precomputed table if there is one.
+	 */
+	public BigInteger modPowR(int i, BigInteger exponent) {
+		FixedBaseComb[] tables = R_tables;
+		if (tables != null) {
+			return tables[i].pow(exponent);
+		}
+
+		return R.get(i).modPow(exponent, n);
+	}
+
+	/**
+	 * Computes S^{sExponent} * prod_i R_i^{rExponents[i]} * prod_j bases[j]^{exps[j]} (mod n).
+	 * If this key has precomputed generator tables these are used for S and the
+	 * R_i; all other powers are computed in one multi-exponentiation, which
+	 * picks the fastest algorithm for the number of bases (see
+	 * {@link Crypto#multiExponentiate(List, List, BigInteger)}).
+	 *
+	 * @param sExponent		the exponent of S, may be null
+	 * @param rExponents	the exponents of the R_i, keyed by i
+	 * @param bases			other bases, may be empty
+	 * @param exps			the exponents of the other bases
+	 */
+	public BigInteger representToGenerators(BigInteger sExponent, Map<Integer, BigInteger> rExponents,
+			List<BigInteger> bases, List<BigInteger> exps) {
+		if (hasGeneratorTables()) {
+			BigInteger r = Crypto.multiExponentiate(bases, exps, n);
+			if (sExponent != null) {
+				r = r.multiply(modPowS(sExponent)).mod(n);
+			}
+			for (Map.Entry<Integer, BigInteger> entry : rExponents.entrySet()) {
+				r = r.multiply(modPowR(entry.getKey(), entry.getValue())).mod(n);
+			}
+			return r;
+		}
+
+		List<BigInteger> allBases = new ArrayList<>(bases.size() + rExponents.size() + 1);
+		List<BigInteger> allExps = new ArrayList<>(bases.size() + rExponents.size() + 1);
+		allBases.addAll(bases);
+		allExps.addAll(exps);
+		if (sExponent != null) {
+			allBases.add(S);
+			allExps.add(sExponent);
+		}
+		for (Map.Entry<Integer, BigInteger> entry : rExponents.entrySet()) {
+			allBases.add(R.get(entry.getKey()));
+			allExps.add(entry.getValue());
+		}
+
+		return Crypto.multiExponentiate(allBases, allExps, n);
+	}
+
+	VPool getVPool() {
+		return vPool;
+	}
+
+	void setVPool(VPool pool) {
+		this.vPool = pool;
+	}
+
+	private void invalidateVPool() {
+		VPool pool = vPool;
+		if (pool != null) {
+			pool.invalidate();
+		}
+	}
+
 	public IdemixSystemParameters getSystemParameters() {
 		if (systemParameters == null) {
 			try {
@@ -204,6 +370,10 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 		return expiryDate;
 	}
 
+	public void setExpiryDate(Date expiryDate) {
+		this.expiryDate = expiryDate;
+	}
+
 	public boolean isValid() {
 		return isValidOn(Calendar.getInstance().getTime());
 	}
@@ -52,6 +52,16 @@ public class IdemixSecretKey extends ConfigurationParser {
 	private BigInteger p_prime;
 	private BigInteger q_prime;
 
+	// CRT coefficient q^{-1} mod p and modulus n = pq, see modPow()
+	private transient BigInteger q_inv_p;
+	private transient BigInteger n;
+
+	// The order p'q' of the group of quadratic residues
+	private transient BigInteger p_prime_q_prime;
+
+	// Optional pool of precomputed (e, e^{-1}) pairs, see ExponentPairPool
+	private transient volatile ExponentPairPool exponentPairPool;
+
 	public IdemixSecretKey(BigInteger p, BigInteger q) throws InfoException {
 		super();
 
@@ -60,6 +70,8 @@ public class IdemixSecretKey extends ConfigurationParser {
 
 		this.p_prime = p.subtract(BigInteger.ONE).shiftRight(1);
 		this.q_prime = q.subtract(BigInteger.ONE).shiftRight(1);
+
+		precompute();
 	}
 
 	/**
@@ -89,6 +101,41 @@ public class IdemixSecretKey extends ConfigurationParser {
 		q = new BigInteger(getFirstTagText(d, "q"));
 		p_prime = new BigInteger(getFirstTagText(d, "pPrime"));
 		q_prime = new BigInteger(getFirstTagText(d, "qPrime"));
+
+		precompute();
+	}
+
+	private void precompute() {
+		n = p.multiply(q);
+		q_inv_p = q.modInverse(p);
+		p_prime_q_prime = p_prime.multiply(q_prime);
+	}
+
+	/**
+	 * Computes base^{exponent} (mod n) using the Chinese Remainder Theorem: the
+	 * exponentiation is done separately modulo p and q, with half-size moduli
+	 * and exponents, after which the results are recombined using the cached
+	 * coefficient q^{-1} mod p. This is roughly four times faster than
+	 * BigInteger.modPow() modulo n.
+	 *
+	 * @param base		an element of Z_n^*
+	 * @param exponent	the exponent, which may be negative
+	 * @return			base^{exponent} (mod n)
+	 */
+	public BigInteger modPow(BigInteger base, BigInteger exponent) {
+		BigInteger m_p = base.mod(p).modPow(exponent.mod(p.subtract(BigInteger.ONE)), p);
+		BigInteger m_q = base.mod(q).modPow(exponent.mod(q.subtract(BigInteger.ONE)), q);
+
+		// Garner's formula: m_q + q * (q^{-1} (m_p - m_q) mod p)
+		BigInteger h = q_inv_p.multiply(m_p.subtract(m_q)).mod(p);
+		return m_q.add(h.multiply(q));
+	}
+
+	/**
+	 * @return the modulus n = pq
+	 */
+	public BigInteger get_n() {
+		return n;
 	}
 
 	public BigInteger get_p() {
@@ -108,6 +155,14 @@ public class IdemixSecretKey extends ConfigurationParser {
 	}
 
 	public BigInteger get_p_prime_q_prime() {
-		return p_prime.multiply(q_prime);
+		return p_prime_q_prime;
+	}
+
+	ExponentPairPool getExponentPairPool() {
+		return exponentPairPool;
+	}
+
+	void setExponentPairPool(ExponentPairPool pool) {
+		this.exponentPairPool = pool;
 	}
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import org.irmacard.credentials.CredentialsException;
+import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
+import org.irmacard.credentials.idemix.messages.IssueSignatureMessage;
+import org.irmacard.credentials.idemix.proofs.ProofList;
+import org.irmacard.credentials.info.KeyException;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>Blocking entry points for issuance and verification, meant to be called from one thread per session. The
+ * number of sessions can be much larger than the number of cores: the CPU-heavy parts of each call only run while
+ * holding one of a fixed number of permits, so that at most that many exponentiation-heavy tasks execute at the same
+ * time and the remaining sessions wait instead of oversubscribing the cores.</p>
+ *
+ * <p>Public key lookups through the {@link org.irmacard.credentials.idemix.info.IdemixKeyStore}, which may involve
+ * disk or network I/O, are done before a permit is acquired, so a session waiting for I/O never holds a permit. No
+ * monitors are held while waiting, either for I/O or for a permit.</p>
+ */
+public class IdemixService {
+	private final Semaphore permits;
+	private final int maxConcurrentTasks;
+
+	/**
+	 * Creates a service that runs at most as many crypto tasks concurrently as there are processors.
+	 */
+	public IdemixService() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param maxConcurrentTasks the maximum number of crypto tasks that may execute at the same time
+	 */
+	public IdemixService(int maxConcurrentTasks) {
+		if (maxConcurrentTasks < 1) {
+			throw new IllegalArgumentException("Number of concurrent tasks must be positive");
+		}
+
+		this.maxConcurrentTasks = maxConcurrentTasks;
+		this.permits = new Semaphore(maxConcurrentTasks, true);
+	}
+
+	/**
+	 * Verifies the proofs, see {@link ProofList#verify(BigInteger, BigInteger, boolean)}. If the public keys of
+	 * the proofs have not been set, they are first looked up using {@link ProofList#populatePublicKeyArray()}.
+	 * @throws KeyException if the public key of one of the proofs could not be found
+	 * @throws InterruptedException if the thread was interrupted while waiting for a permit
+	 */
+	public boolean verify(ProofList proofs, BigInteger context, BigInteger nonce, boolean shouldBeBound)
+			throws KeyException, InterruptedException {
+		if (proofs.getPublicKeys() == null || proofs.getPublicKeys().size() != proofs.size())
+			proofs.populatePublicKeyArray();
+
+		permits.acquire();
+		try {
+			return proofs.verify(context, nonce, shouldBeBound);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Verifies the commitments of an issuance, see
+	 * {@link IdemixIssuer#verifyCommitments(IssueCommitmentMessage, BigInteger)}.
+	 * @throws CredentialsException if the commitments are not correct
+	 * @throws InterruptedException if the thread was interrupted while waiting for a permit
+	 */
+	public void verifyCommitments(IdemixIssuer issuer, IssueCommitmentMessage msg, BigInteger nonce1)
+			throws CredentialsException, InterruptedException {
+		permits.acquire();
+		try {
+			issuer.verifyCommitments(msg, nonce1);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Verifies the commitments and issues a signature, see
+	 * {@link IdemixIssuer#issueSignature(IssueCommitmentMessage, List, int, BigInteger)}. The verification and the
+	 * signing are done under separate permits, so that other sessions can be interleaved between the two.
+	 * @throws CredentialsException if the commitments are not correct
+	 * @throws InterruptedException if the thread was interrupted while waiting for a permit
+	 */
+	public IssueSignatureMessage issueSignature(IdemixIssuer issuer, IssueCommitmentMessage msg,
+			List<BigInteger> attrs, int index, BigInteger nonce1) throws CredentialsException, InterruptedException {
+		verifyCommitments(issuer, msg, nonce1);
+
+		permits.acquire();
+		try {
+			return issuer.issueSignatureNoCheck(msg, attrs, index, nonce1);
+		} finally {
+			permits.release();
+		}
+	}
+
+	public IssueSignatureMessage issueSignature(IdemixIssuer issuer, IssueCommitmentMessage msg,
+			List<BigInteger> attrs, BigInteger nonce1) throws CredentialsException, InterruptedException {
+		return issueSignature(issuer, msg, attrs, 0, nonce1);
+	}
+
+	public int getMaxConcurrentTasks() {
+		return maxConcurrentTasks;
+	}
+
+	/**
+	 * @return the number of crypto tasks that could start right now without waiting
+	 */
+	public int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+}
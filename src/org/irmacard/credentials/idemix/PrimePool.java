@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.irmacard.credentials.idemix.util.BackgroundPool;
+import org.irmacard.credentials.idemix.util.Crypto;
+
+/**
+ * A bounded pool of primes e in the range [2^{l_e - 1}, 2^{l_e - 1} +
+ * 2^{l_e_prime - 1}] for CL signatures, kept filled by background threads.
+ * Searching for such a prime is the most expensive and least predictable part
+ * of signing, so an issuer that starts a pool for its key size does not spend
+ * time on it while signing, as long as the pool keeps up.
+ * <p>
+ * Pools are optional. They are started per system parameter size using
+ * {@link #start(IdemixSystemParameters, int, int)}, after which
+ * {@link #nextPrime(IdemixSystemParameters)} (which is used when signing)
+ * draws from the pool. When there is no pool or it is empty, the prime is
+ * computed on the spot, which is counted as a miss.
+ */
+public class PrimePool extends BackgroundPool<BigInteger> {
+	private static final ConcurrentMap<Integer, PrimePool> pools = new ConcurrentHashMap<>();
+
+	private final int l_n;
+	private final int start_in_bits;
+	private final int length_in_bits;
+
+	private PrimePool(IdemixSystemParameters params, int capacity, int threads) {
+		super("PrimePool-" + params.get_l_n(), capacity, threads);
+
+		this.l_n = params.get_l_n();
+		this.start_in_bits = params.get_l_e() - 1;
+		this.length_in_bits = params.get_l_e_prime() - 1;
+	}
+
+	/**
+	 * Starts a pool for the given system parameters, unless one is already
+	 * running for their size, in which case that one is returned.
+	 *
+	 * @param params	the system parameters, determining the range of the primes
+	 * @param capacity	the maximum number of primes kept in the pool
+	 * @param threads	the number of background threads filling the pool
+	 * @return			the pool for the given system parameters
+	 */
+	public static synchronized PrimePool start(IdemixSystemParameters params, int capacity, int threads) {
+		PrimePool pool = pools.get(params.get_l_n());
+		if (pool != null) {
+			return pool;
+		}
+
+		pool = new PrimePool(params, capacity, threads);
+		pool.start();
+		pools.put(params.get_l_n(), pool);
+		return pool;
+	}
+
+	/**
+	 * @return the running pool for the given system parameters, or null
+	 */
+	public static PrimePool get(IdemixSystemParameters params) {
+		return pools.get(params.get_l_n());
+	}
+
+	/**
+	 * Stops all running pools.
+	 */
+	public static synchronized void stopAll() {
+		for (PrimePool pool : pools.values()) {
+			pool.stop();
+		}
+	}
+
+	/**
+	 * Returns a probable prime e for a signature using the given system
+	 * parameters, from the pool if there is one.
+	 */
+	public static BigInteger nextPrime(IdemixSystemParameters params) {
+		PrimePool pool = pools.get(params.get_l_n());
+		if (pool != null) {
+			return pool.take();
+		}
+
+		return Crypto.probablyPrimeInBitRange(params.get_l_e() - 1, params.get_l_e_prime() - 1);
+	}
+
+	@Override
+	protected BigInteger generate() {
+		return Crypto.probablyPrimeInBitRange(start_in_bits, length_in_bits);
+	}
+
+	/**
+	 * Stops the background threads and removes this pool, after which signing
+	 * no longer uses it.
+	 */
+	@Override
+	public void stop() {
+		synchronized (PrimePool.class) {
+			pools.remove(l_n, this);
+		}
+
+		super.stop();
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.irmacard.credentials.idemix.util.BackgroundPool;
+
+/**
+ * A bounded pool of randomized copies of the signature of one credential,
+ * kept filled by background threads. Each disclosure proof needs a freshly
+ * randomized signature (A' = A S^r, v' = v - er), which costs a full-size
+ * exponentiation; with a pool this moves out of the interactive path. Each
+ * randomized signature is handed out exactly once, so that no two proofs are
+ * linkable through it.
+ * <p>
+ * A pool is started for a credential using
+ * {@link #start(IdemixCredential, int, int)}; disclosure proofs of that
+ * credential then draw from it. When there is no pool or it is empty, the
+ * signature is randomized on the spot.
+ * <p>
+ * The pools of all credentials are filled on one shared executor with a
+ * bounded number of threads, which time out when idle. The pool is referenced
+ * only by its credential (and by a filling task while it runs), so it does not
+ * keep the credential alive.
+ */
+public class RandomizedSignaturePool extends BackgroundPool<CLSignature> {
+	/** Maximum number of threads filling the pools of all credentials together */
+	private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	/** Maximum number of filling tasks waiting for a thread */
+	private static final int QUEUE_CAPACITY = 256;
+
+	private static final ThreadPoolExecutor executor;
+
+	static {
+		executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "RandomizedSignaturePool-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private final IdemixCredential credential;
+
+	private RandomizedSignaturePool(IdemixCredential credential, int capacity, int parallelism) {
+		super(capacity, parallelism, executor);
+
+		this.credential = credential;
+	}
+
+	/**
+	 * Starts a pool for the given credential, unless one is already running for
+	 * it, in which case that one is returned.
+	 *
+	 * @param credential	the credential
+	 * @param capacity		the maximum number of randomized signatures kept in the pool
+	 * @param parallelism	the maximum number of shared threads filling this pool at the same time
+	 * @return				the pool for the given credential
+	 */
+	public static RandomizedSignaturePool start(IdemixCredential credential, int capacity, int parallelism) {
+		synchronized (credential) {
+			RandomizedSignaturePool pool = credential.getRandomizedSignaturePool();
+			if (pool != null) {
+				return pool;
+			}
+
+			pool = new RandomizedSignaturePool(credential, capacity, parallelism);
+			pool.start();
+			credential.setRandomizedSignaturePool(pool);
+			return pool;
+		}
+	}
+
+	/**
+	 * @return the running pool for the given credential, or null
+	 */
+	public static RandomizedSignaturePool get(IdemixCredential credential) {
+		return credential.getRandomizedSignaturePool();
+	}
+
+	/**
+	 * Returns a freshly randomized signature of the given credential, from its
+	 * pool if there is one.
+	 */
+	public static CLSignature next(IdemixCredential credential) {
+		RandomizedSignaturePool pool = credential.getRandomizedSignaturePool();
+		if (pool != null) {
+			return pool.take();
+		}
+
+		return credential.getSignature().randomize(credential.getPublicKey());
+	}
+
+	@Override
+	protected CLSignature generate() {
+		return credential.getSignature().randomize(credential.getPublicKey());
+	}
+
+	/**
+	 * Stops filling this pool, discards the randomized signatures in it, and
+	 * detaches it from its credential, after which disclosure proofs no longer
+	 * use it.
+	 */
+	@Override
+	public void stop() {
+		synchronized (credential) {
+			if (credential.getRandomizedSignaturePool() == this) {
+				credential.setRandomizedSignaturePool(null);
+			}
+		}
+
+		super.stop();
+		clear();
+	}
+}
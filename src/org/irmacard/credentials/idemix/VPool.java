@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+
+import org.irmacard.credentials.idemix.util.BackgroundPool;
+import org.irmacard.credentials.idemix.util.RandomnessProvider;
+
+/**
+ * A bounded pool of signature randomizers v together with S^v (mod n) for one
+ * public key, kept filled by background threads. These do not depend on the
+ * attributes or the commitment of the user, so with a pool the large
+ * exponentiation S^v moves out of the signing request: only the attributes,
+ * the commitment U and the e-th root remain.
+ * <p>
+ * A pool is started for a public key using
+ * {@link #start(IdemixPublicKey, int, int)}; signing with that key then draws
+ * from it. When there is no pool or it is empty, the pair is computed on the
+ * spot.
+ */
+public class VPool extends BackgroundPool<VPool.VPair> {
+	private final IdemixPublicKey pk;
+
+	/**
+	 * A randomizer v and S^v (mod n).
+	 */
+	public static final class VPair {
+		private final BigInteger v;
+		private final BigInteger Sv;
+
+		VPair(BigInteger v, BigInteger Sv) {
+			this.v = v;
+			this.Sv = Sv;
+		}
+
+		public BigInteger get_v() {
+			return v;
+		}
+
+		public BigInteger get_Sv() {
+			return Sv;
+		}
+	}
+
+	private VPool(IdemixPublicKey pk, int capacity, int threads) {
+		super("VPool", capacity, threads);
+
+		this.pk = pk;
+	}
+
+	/**
+	 * Starts a pool for the given public key, unless one is already running for
+	 * it, in which case that one is returned.
+	 *
+	 * @param pk		the public key
+	 * @param capacity	the maximum number of pairs kept in the pool
+	 * @param threads	the number of background threads filling the pool
+	 * @return			the pool for the given public key
+	 */
+	public static VPool start(IdemixPublicKey pk, int capacity, int threads) {
+		synchronized (pk) {
+			VPool pool = pk.getVPool();
+			if (pool != null) {
+				return pool;
+			}
+
+			pool = new VPool(pk, capacity, threads);
+			pool.start();
+			pk.setVPool(pool);
+			return pool;
+		}
+	}
+
+	/**
+	 * @return the running pool for the given public key, or null
+	 */
+	public static VPool get(IdemixPublicKey pk) {
+		return pk.getVPool();
+	}
+
+	/**
+	 * Returns a fresh pair for signing with the given public key, from its pool
+	 * if there is one.
+	 */
+	static VPair next(IdemixPublicKey pk) {
+		VPool pool = pk.getVPool();
+		if (pool != null) {
+			return pool.take();
+		}
+
+		return generate(pk);
+	}
+
+	private static VPair generate(IdemixPublicKey pk) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+
+		// v = 2^{l_v - 1} + v_tilde
+		BigInteger v = new BigInteger(params.get_l_v() - 1, RandomnessProvider.random()).setBit(params.get_l_v() - 1);
+		return new VPair(v, pk.modPowS(v));
+	}
+
+	@Override
+	protected VPair generate() {
+		return generate(pk);
+	}
+
+	/**
+	 * Discards the pairs computed so far, as S or n of the public key changed.
+	 */
+	void invalidate() {
+		clear();
+	}
+
+	/**
+	 * Stops the background threads and detaches this pool from its public key,
+	 * after which signing no longer uses it.
+	 */
+	@Override
+	public void stop() {
+		synchronized (pk) {
+			if (pk.getVPool() == this) {
+				pk.setVPool(null);
+			}
+		}
+
+		super.stop();
+	}
+}
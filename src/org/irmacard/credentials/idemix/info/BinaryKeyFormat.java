@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.info;
+
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.IdemixSecretKey;
+import org.irmacard.credentials.info.InfoException;
+import org.irmacard.credentials.info.IssuerIdentifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>Compact binary encoding of Idemix keys, as a faster alternative to the XML files: reading a key amounts to
+ * copying the magnitudes of its integers, instead of parsing an XML document and converting decimal strings.</p>
+ *
+ * <p>All values are big-endian. An encoded key starts with the magic bytes "IRMK", a version byte and a type byte
+ * ({@link #TYPE_PUBLIC} or {@link #TYPE_SECRET}), followed by the key counter as an int. A public key continues with
+ * a byte that is 1 if it has an expiry date and 0 if not, the expiry date if present (milliseconds since the epoch,
+ * as a long), its issuer identifier (as produced by
+ * {@link DataOutputStream#writeUTF(String)}, empty if absent), n, Z, S, the number of bases R_i as an int, and the
+ * R_i. A secret key continues with p and q. Each integer is encoded as the length of its magnitude as an int,
+ * followed by the magnitude.</p>
+ */
+public class BinaryKeyFormat {
+	public static final int VERSION = 2;
+	public static final int TYPE_PUBLIC = 1;
+	public static final int TYPE_SECRET = 2;
+
+	private static final byte[] MAGIC = { 'I', 'R', 'M', 'K' };
+
+	// Upper bounds on the size of a single integer and on the number of bases, to fail fast on corrupt input
+	private static final int MAX_INTEGER_LENGTH = 4096;
+	private static final int MAX_BASES = 1024;
+
+	private BinaryKeyFormat() {}
+
+	public static void write(IdemixPublicKey pk, OutputStream stream) throws IOException {
+		write(pk, pk.getIssuerIdentifier(), pk.getCounter(), stream);
+	}
+
+	/**
+	 * Writes the public key as belonging to the specified issuer and counter, which need not be set on the key itself.
+	 */
+	static void write(IdemixPublicKey pk, IssuerIdentifier issuer, int counter, OutputStream stream)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		writeHeader(out, TYPE_PUBLIC, counter);
+
+		Date expiry = pk.getExpiryDate();
+		out.writeBoolean(expiry != null);
+		if (expiry != null)
+			out.writeLong(expiry.getTime());
+		out.writeUTF(issuer != null ? issuer.toString() : "");
+
+		writeInteger(out, pk.getModulus());
+		writeInteger(out, pk.getGeneratorZ());
+		writeInteger(out, pk.getGeneratorS());
+		List<BigInteger> R = pk.getGeneratorsR();
+		out.writeInt(R.size());
+		for (BigInteger Ri : R)
+			writeInteger(out, Ri);
+
+		out.flush();
+	}
+
+	public static void write(IdemixSecretKey sk, int counter, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(stream);
+		writeHeader(out, TYPE_SECRET, counter);
+		writeInteger(out, sk.get_p());
+		writeInteger(out, sk.get_q());
+		out.flush();
+	}
+
+	public static byte[] toBytes(IdemixPublicKey pk) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(pk, bytes);
+		} catch (IOException e) {
+			throw new RuntimeException(e); // Cannot happen for a ByteArrayOutputStream
+		}
+		return bytes.toByteArray();
+	}
+
+	public static byte[] toBytes(IdemixSecretKey sk, int counter) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(sk, counter, bytes);
+		} catch (IOException e) {
+			throw new RuntimeException(e); // Cannot happen for a ByteArrayOutputStream
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads a public key. If the encoding contains no issuer identifier, the specified one is used.
+	 * @throws InfoException if the stream does not contain a public key in a supported version of this format
+	 */
+	public static IdemixPublicKey readPublicKey(InputStream stream, IssuerIdentifier issuer) throws InfoException {
+		try {
+			DataInputStream in = new DataInputStream(stream);
+			int counter = readHeader(in, TYPE_PUBLIC);
+
+			Date expiry = in.readBoolean() ? new Date(in.readLong()) : null;
+			String id = in.readUTF();
+
+			BigInteger n = readInteger(in);
+			BigInteger Z = readInteger(in);
+			BigInteger S = readInteger(in);
+			int count = in.readInt();
+			if (count < 0 || count > MAX_BASES)
+				throw new InfoException("Invalid number of bases in binary key: " + count);
+			List<BigInteger> R = new ArrayList<>(count);
+			for (int i = 0; i < count; i++)
+				R.add(readInteger(in));
+
+			IdemixPublicKey pk = new IdemixPublicKey(n, Z, S, R);
+			pk.setCounter(counter);
+			pk.setExpiryDate(expiry);
+			pk.setIssuerIdentifier(id.isEmpty() ? issuer : new IssuerIdentifier(id));
+			return pk;
+		} catch (IOException e) {
+			throw new InfoException("Could not read binary public key: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads a public key, as {@link #readPublicKey(InputStream, IssuerIdentifier)}, and checks that it has the
+	 * specified counter.
+	 * @throws InfoException if the stream does not contain a public key in a supported version of this format, or if
+	 *         its counter is not the specified one
+	 */
+	public static IdemixPublicKey readPublicKey(InputStream stream, IssuerIdentifier issuer, int counter)
+			throws InfoException {
+		IdemixPublicKey pk = readPublicKey(stream, issuer);
+		checkCounter(pk.getCounter(), counter);
+		return pk;
+	}
+
+	/**
+	 * @throws InfoException if the stream does not contain a secret key in a supported version of this format
+	 */
+	public static IdemixSecretKey readSecretKey(InputStream stream) throws InfoException {
+		try {
+			DataInputStream in = new DataInputStream(stream);
+			readHeader(in, TYPE_SECRET);
+			return new IdemixSecretKey(readInteger(in), readInteger(in));
+		} catch (IOException e) {
+			throw new InfoException("Could not read binary secret key: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads a secret key and checks that it has the specified counter.
+	 * @throws InfoException if the stream does not contain a secret key in a supported version of this format, or if
+	 *         its counter is not the specified one
+	 */
+	public static IdemixSecretKey readSecretKey(InputStream stream, int counter) throws InfoException {
+		try {
+			DataInputStream in = new DataInputStream(stream);
+			checkCounter(readHeader(in, TYPE_SECRET), counter);
+			return new IdemixSecretKey(readInteger(in), readInteger(in));
+		} catch (IOException e) {
+			throw new InfoException("Could not read binary secret key: " + e.getMessage());
+		}
+	}
+
+	private static void checkCounter(int actual, int expected) throws InfoException {
+		if (actual != expected)
+			throw new InfoException("Binary key has counter " + actual + " instead of " + expected);
+	}
+
+	private static void writeHeader(DataOutputStream out, int type, int counter) throws IOException {
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(type);
+		out.writeInt(counter);
+	}
+
+	/**
+	 * @return the key counter
+	 */
+	private static int readHeader(DataInputStream in, int type) throws IOException, InfoException {
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		for (int i = 0; i < MAGIC.length; i++)
+			if (magic[i] != MAGIC[i])
+				throw new InfoException("Not a binary key");
+
+		int version = in.readUnsignedByte();
+		if (version != VERSION)
+			throw new InfoException("Unsupported binary key version " + version);
+
+		int actualType = in.readUnsignedByte();
+		if (actualType != type)
+			throw new InfoException("Unexpected binary key type " + actualType);
+
+		return in.readInt();
+	}
+
+	static void writeInteger(DataOutputStream out, BigInteger value) throws IOException {
+		if (value.signum() < 0)
+			throw new IllegalArgumentException("Key integers must be nonnegative");
+
+		byte[] bytes = value.toByteArray();
+		// Strip the sign byte
+		int offset = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+		out.writeInt(bytes.length - offset);
+		out.write(bytes, offset, bytes.length - offset);
+	}
+
+	static BigInteger readInteger(DataInputStream in) throws IOException, InfoException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_INTEGER_LENGTH)
+			throw new InfoException("Invalid integer length in binary key: " + length);
+
+		byte[] magnitude = new byte[length];
+		in.readFully(magnitude);
+		return new BigInteger(1, magnitude);
+	}
+}
@@ -32,25 +32,96 @@ package org.irmacard.credentials.idemix.info;
 
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSecretKey;
+import org.irmacard.credentials.idemix.util.FixedBaseComb;
 import org.irmacard.credentials.info.*;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
-
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Store of the public and secret keys of the issuers. All methods are safe to call from multiple threads; reads do
+ * not take any locks unless a capacity is set, in which case finding a parsed public key briefly locks the record of
+ * which keys were used recently. The highest public key counter of each issuer is tracked as keys are added, so that
+ * {@link #getKeyCounter(IssuerIdentifier)} and the getLatest methods are constant-time lookups.
+ *
+ * How the store is filled by {@link #initialize()} is determined by {@link #setBootstrap(KeyTreeWalker.Bootstrap)}.
+ * In the lazy mode only the available key counters are recorded, and each key is parsed on first use.
+ *
+ * The number of parsed public keys, or the estimated memory they take including their generator tables, can be
+ * bounded using {@link #setCapacity(int, long)}. The size of a key is estimated again each time it is requested, so
+ * that generator tables built after it was added are counted. When the bound is exceeded the least recently used
+ * keys are discarded, and parsed again from their source when they are next requested. Only keys that were loaded from a
+ * deserializer or a {@link KeyCacheFile} can be discarded in this way; other keys are always kept.
+ */
 @SuppressWarnings("unused")
 public class IdemixKeyStore extends KeyStore {
 	static public final String PUBLIC_KEY_FILE = "PublicKeys/%d.xml";
 	static public final String PRIVATE_KEY_FILE = "PrivateKeys/%d.xml";
+	static public final String PUBLIC_KEY_BINARY_FILE = "PublicKeys/%d.bin";
+	static public final String PRIVATE_KEY_BINARY_FILE = "PrivateKeys/%d.bin";
 
-	static private IdemixKeyStore ds;
+	static private volatile IdemixKeyStore ds;
 
 	static private IdemixKeyStoreSerializer serializer;
 	static private IdemixKeyStoreDeserializer deserializer;
+	static private KeyTreeWalker.Bootstrap bootstrap = KeyTreeWalker.Bootstrap.SERIAL;
+
+	private final ConcurrentMap<IssuerIdentifier, ConcurrentMap<Integer,IdemixPublicKey>> publicKeys
+			= new ConcurrentHashMap<>();
+	private final ConcurrentMap<IssuerIdentifier, ConcurrentMap<Integer,IdemixSecretKey>> secretKeys
+			= new ConcurrentHashMap<>();
+	private final ConcurrentMap<IssuerIdentifier, Integer> latestCounters = new ConcurrentHashMap<>();
+
+	// Keys that are known to exist but have not been parsed yet, with the source to load them from
+	private final ConcurrentMap<IssuerIdentifier, ConcurrentMap<Integer,PublicKeySource>> pendingPublicKeys
+			= new ConcurrentHashMap<>();
+	private final ConcurrentMap<IssuerIdentifier, ConcurrentMap<Integer,IdemixKeyStoreDeserializer>> pendingSecretKeys
+			= new ConcurrentHashMap<>();
+
+	// Bound on the parsed public keys, see setCapacity()
+	private volatile int maxKeys = Integer.MAX_VALUE;
+	private volatile long maxBytes = Long.MAX_VALUE;
+
+	// The parsed public keys that can be discarded, least recently used first, and the ones that cannot. All three
+	// fields are guarded by the lock on evictable.
+	private final LinkedHashMap<KeyId, TrackedKey> evictable = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<KeyId, TrackedKey> pinned = new HashMap<>();
+	private long trackedBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	// Estimated memory taken by one BigInteger in addition to its magnitude
+	private static final int BIGINTEGER_OVERHEAD = 48;
+
+	// Public key downloads that are in progress, see downloadPublicKeyAsync()
+	private final ConcurrentMap<KeyId, Future<IdemixPublicKey>> downloads = new ConcurrentHashMap<>();
+	private volatile ExecutorService downloadExecutor;
+
+	// Maximum number of concurrent downloads of the default download executor
+	private static final int DOWNLOAD_THREADS = 4;
 
-	private HashMap<IssuerIdentifier, HashMap<Integer,IdemixPublicKey>> publicKeys = new HashMap<>();
-	private HashMap<IssuerIdentifier, HashMap<Integer,IdemixSecretKey>> secretKeys = new HashMap<>();
+	// When the download of each key last failed (System.nanoTime()), so that prefetching does not keep asking the
+	// scheme manager for a key that does not exist yet
+	private final ConcurrentMap<KeyId, Long> failedDownloads = new ConcurrentHashMap<>();
+	private static final long PREFETCH_RETRY_NANOS = TimeUnit.MINUTES.toNanos(10);
 
 	public static void setDeserializer(IdemixKeyStoreDeserializer deserializer) {
 		IdemixKeyStore.deserializer = deserializer;
@@ -60,6 +131,14 @@ public class IdemixKeyStore extends KeyStore {
 		IdemixKeyStore.serializer = serializer;
 	}
 
+	/**
+	 * Sets how {@link #initialize()} loads the keys from the deserializer. The default is
+	 * {@link KeyTreeWalker.Bootstrap#SERIAL}.
+	 */
+	public static void setBootstrap(KeyTreeWalker.Bootstrap bootstrap) {
+		IdemixKeyStore.bootstrap = bootstrap;
+	}
+
 	public static void initialize(IdemixKeyStoreDeserializer deserializer,
 	                              IdemixKeyStoreSerializer serializer) throws InfoException {
 		IdemixKeyStore.deserializer = deserializer;
@@ -72,12 +151,14 @@ public class IdemixKeyStore extends KeyStore {
 		initialize();
 	}
 
-	public static void initialize() throws InfoException {
-		ds = new IdemixKeyStore();
+	public static synchronized void initialize() throws InfoException {
+		// Only publish the store once it is completely filled
+		IdemixKeyStore store = new IdemixKeyStore();
 		if (deserializer != null)
-			new KeyTreeWalker(deserializer).deserializeIdemixKeyStore(ds);
+			new KeyTreeWalker(deserializer).deserializeIdemixKeyStore(store, bootstrap);
 
-		KeyStore.setInstance(ds);
+		ds = store;
+		KeyStore.setInstance(store);
 	}
 
 	public static boolean isInitialized() {
@@ -91,38 +172,149 @@ public class IdemixKeyStore extends KeyStore {
 	 * @throws StoreException if instantiating the IdemixKeyStore failed
 	 */
 	public static IdemixKeyStore getInstance() throws StoreException {
-		if (ds == null) {
-			try {
-				initialize();
-			} catch (InfoException e) {
-				throw new StoreException(e);
+		IdemixKeyStore store = ds;
+		if (store != null)
+			return store;
+
+		synchronized (IdemixKeyStore.class) {
+			if (ds == null) {
+				try {
+					initialize();
+				} catch (InfoException e) {
+					throw new StoreException(e);
+				}
 			}
-		}
 
-		return ds;
+			return ds;
+		}
 	}
 
 	public static void setInstance(IdemixKeyStore instance) {
 		ds = instance;
 	}
 
+	/**
+	 * Adds the public key. The key is visible to other threads, and the latest counter of the issuer is updated,
+	 * when this method returns.
+	 */
 	public void setPublicKey(IssuerIdentifier issuer, IdemixPublicKey ipk, int counter) {
-		if (!publicKeys.containsKey(issuer))
-			publicKeys.put(issuer, new HashMap<Integer, IdemixPublicKey>(1));
+		setPublicKey(issuer, ipk, counter, null);
+	}
+
+	/**
+	 * Adds the public key, recording that it can be loaded again from the specified source (if not null) when it is
+	 * discarded to stay within the capacity of this store.
+	 */
+	void setPublicKey(IssuerIdentifier issuer, IdemixPublicKey ipk, int counter, PublicKeySource source) {
+		getOrCreate(publicKeys, issuer).put(counter, ipk);
+		track(new KeyId(issuer, counter), ipk, source);
 
-		publicKeys.get(issuer).put(counter, ipk);
+		// Update the latest counter only after the key itself is in place, so that it never refers to a missing key
+		updateLatestCounter(issuer, counter);
+		evictIfNeeded();
+	}
+
+	/**
+	 * Records that the keys with the specified counter are available from the deserializer, without loading them.
+	 * The public key counts as present immediately; the secret key is considered absent if it cannot be loaded.
+	 */
+	void setLazyKeys(IssuerIdentifier issuer, int counter, IdemixKeyStoreDeserializer source) {
+		getOrCreate(pendingSecretKeys, issuer).put(counter, source);
+		getOrCreate(pendingPublicKeys, issuer).put(counter, source);
+		updateLatestCounter(issuer, counter);
+	}
+
+	private void updateLatestCounter(IssuerIdentifier issuer, int counter) {
+		while (true) {
+			Integer latest = latestCounters.putIfAbsent(issuer, counter);
+			if (latest == null || latest >= counter || latestCounters.replace(issuer, latest, counter))
+				break;
+		}
+	}
+
+	/**
+	 * Parses the public key if it was recorded by {@link #setLazyKeys(IssuerIdentifier, int,
+	 * IdemixKeyStoreDeserializer)}. If two threads do this concurrently both parse the key, but only one of the
+	 * results is kept.
+	 * @return the key, or null if it is not pending or could not be parsed
+	 */
+	private IdemixPublicKey loadPendingPublicKey(IssuerIdentifier issuer, int counter) {
+		ConcurrentMap<Integer, PublicKeySource> pending = pendingPublicKeys.get(issuer);
+		PublicKeySource source = pending != null ? pending.get(counter) : null;
+		if (source == null)
+			return null;
+
+		try {
+			IdemixPublicKey pk = source.loadPublicKey(issuer, counter);
+			IdemixPublicKey existing = getOrCreate(publicKeys, issuer).putIfAbsent(counter, pk);
+			pending.remove(counter, source);
+			if (existing != null)
+				return existing;
+
+			track(new KeyId(issuer, counter), pk, source);
+			evictIfNeeded();
+			return pk;
+		} catch (InfoException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @see #loadPendingPublicKey(IssuerIdentifier, int)
+	 */
+	private IdemixSecretKey loadPendingSecretKey(IssuerIdentifier issuer, int counter) {
+		ConcurrentMap<Integer, IdemixKeyStoreDeserializer> pending = pendingSecretKeys.get(issuer);
+		IdemixKeyStoreDeserializer source = pending != null ? pending.get(counter) : null;
+		if (source == null)
+			return null;
+
+		try {
+			IdemixSecretKey sk = source.loadPrivateKey(issuer, counter);
+			IdemixSecretKey existing = getOrCreate(secretKeys, issuer).putIfAbsent(counter, sk);
+			return existing != null ? existing : sk;
+		} catch (InfoException e) {
+			return null; // Absence of the secret key is normal
+		} finally {
+			// Don't try again
+			pending.remove(counter);
+		}
+	}
+
+	private static <V> ConcurrentMap<Integer, V> getOrCreate(
+			ConcurrentMap<IssuerIdentifier, ConcurrentMap<Integer, V>> map, IssuerIdentifier issuer) {
+		ConcurrentMap<Integer, V> keys = map.get(issuer);
+		if (keys != null)
+			return keys;
+
+		ConcurrentMap<Integer, V> created = new ConcurrentHashMap<>(2);
+		keys = map.putIfAbsent(issuer, created);
+		return keys != null ? keys : created;
 	}
 
 	public boolean containsPublicKey(IssuerIdentifier issuer, int counter) {
-		if (!publicKeys.containsKey(issuer))
-			return false;
-		return publicKeys.get(issuer).containsKey(counter);
+		ConcurrentMap<Integer, IdemixPublicKey> keys = publicKeys.get(issuer);
+		if (keys != null && keys.containsKey(counter))
+			return true;
+
+		ConcurrentMap<Integer, PublicKeySource> pending = pendingPublicKeys.get(issuer);
+		return pending != null && pending.containsKey(counter);
 	}
 
 	@Override
 	public IdemixPublicKey getPublicKey(IssuerIdentifier issuer, int counter) throws KeyException {
-		if (publicKeys.containsKey(issuer) && publicKeys.get(issuer).containsKey(counter))
-			return publicKeys.get(issuer).get(counter);
+		ConcurrentMap<Integer, IdemixPublicKey> keys = publicKeys.get(issuer);
+		IdemixPublicKey pk = keys != null ? keys.get(counter) : null;
+		if (pk != null) {
+			hits.incrementAndGet();
+			if (isBounded())
+				touch(new KeyId(issuer, counter), pk);
+			return pk;
+		}
+
+		misses.incrementAndGet();
+		pk = loadPendingPublicKey(issuer, counter);
+		if (pk != null)
+			return pk;
 
 		throw new KeyException("Public key " + counter + " for issuer " + issuer + " not found");
 	}
@@ -133,9 +325,14 @@ public class IdemixKeyStore extends KeyStore {
 
 	@Override
 	public void removePublicKeys(IssuerIdentifier issuer) {
-		for (Iterator<IssuerIdentifier> it = publicKeys.keySet().iterator(); it.hasNext(); )
-			if (it.next().equals(issuer))
-				it.remove();
+		latestCounters.remove(issuer);
+		pendingPublicKeys.remove(issuer);
+		publicKeys.remove(issuer);
+
+		synchronized (evictable) {
+			untrack(evictable.values().iterator(), issuer);
+			untrack(pinned.values().iterator(), issuer);
+		}
 	}
 
 	public IdemixPublicKey getLatestPublicKey(IssuerIdentifier issuer) throws KeyException {
@@ -143,14 +340,20 @@ public class IdemixKeyStore extends KeyStore {
 	}
 
 	public boolean containsSecretKey(IssuerIdentifier issuer, int counter) {
-		if (!secretKeys.containsKey(issuer))
-			return false;
-		return secretKeys.get(issuer).containsKey(counter);
+		ConcurrentMap<Integer, IdemixSecretKey> keys = secretKeys.get(issuer);
+		if (keys != null && keys.containsKey(counter))
+			return true;
+
+		return loadPendingSecretKey(issuer, counter) != null;
 	}
 
 	public IdemixSecretKey getSecretKey(IssuerIdentifier issuer, int counter) throws KeyException {
-		if (secretKeys.containsKey(issuer) && secretKeys.get(issuer).containsKey(counter))
-			return secretKeys.get(issuer).get(counter);
+		ConcurrentMap<Integer, IdemixSecretKey> keys = secretKeys.get(issuer);
+		IdemixSecretKey sk = keys != null ? keys.get(counter) : null;
+		if (sk == null)
+			sk = loadPendingSecretKey(issuer, counter);
+		if (sk != null)
+			return sk;
 
 		throw new KeyException("Secret key " + counter + " for issuer " + issuer + " not found");
 	}
@@ -160,10 +363,209 @@ public class IdemixKeyStore extends KeyStore {
 	}
 
 	public void setSecretKey(IssuerIdentifier issuer, IdemixSecretKey sk, int counter) {
-		if (!secretKeys.containsKey(issuer))
-			secretKeys.put(issuer, new HashMap<Integer, IdemixSecretKey>(1));
+		getOrCreate(secretKeys, issuer).put(counter, sk);
+	}
+
+	/**
+	 * Writes all public keys in this store, including the ones that have not been parsed yet and the generator tables
+	 * of the keys that have them, to a {@link KeyCacheFile}. Keys that have not been parsed yet are read directly
+	 * from their source, without adding them to this store. Keys that cannot be loaded are skipped.
+	 */
+	public void saveCache(File file) throws IOException {
+		// The keys are written under the issuer and counter they are stored under here, as the keys themselves
+		// are shared and should not be changed
+		Map<IssuerIdentifier, Map<Integer, IdemixPublicKey>> keys = new HashMap<>();
+
+		for (Map.Entry<IssuerIdentifier, ConcurrentMap<Integer, IdemixPublicKey>> issuerKeys : publicKeys.entrySet())
+			keys.put(issuerKeys.getKey(), new HashMap<>(issuerKeys.getValue()));
+
+		for (Map.Entry<IssuerIdentifier, ConcurrentMap<Integer, PublicKeySource>> issuerKeys
+				: pendingPublicKeys.entrySet()) {
+			IssuerIdentifier issuer = issuerKeys.getKey();
+			Map<Integer, IdemixPublicKey> counters = keys.get(issuer);
+			if (counters == null) {
+				counters = new HashMap<>();
+				keys.put(issuer, counters);
+			}
+			for (Map.Entry<Integer, PublicKeySource> entry : issuerKeys.getValue().entrySet()) {
+				if (counters.containsKey(entry.getKey()))
+					continue;
+				try {
+					counters.put(entry.getKey(), entry.getValue().loadPublicKey(issuer, entry.getKey()));
+				} catch (InfoException e) { /* skip */ }
+			}
+		}
+
+		KeyCacheFile.write(keys, file);
+	}
+
+	/**
+	 * Makes the public keys in the specified {@link KeyCacheFile} available in this store. Keys are decoded from the
+	 * file when they are first requested; keys that are already present in this store are not replaced.
+	 * @throws InfoException if the file is not a valid key cache file
+	 */
+	public void loadCache(File file) throws IOException, InfoException {
+		KeyCacheFile cache = KeyCacheFile.open(file);
+
+		for (IssuerIdentifier issuer : cache.getIssuers()) {
+			for (int counter : cache.getCounters(issuer)) {
+				if (containsPublicKey(issuer, counter))
+					continue;
+				getOrCreate(pendingPublicKeys, issuer).putIfAbsent(counter, cache);
+				updateLatestCounter(issuer, counter);
+			}
+		}
+	}
+
+	/**
+	 * Bounds the parsed public keys kept in this store, by their number and by their estimated memory usage
+	 * (including generator tables). Use {@link Integer#MAX_VALUE} and {@link Long#MAX_VALUE} (the defaults) for no
+	 * bound. If the store currently exceeds the bounds, keys are discarded right away.
+	 */
+	public void setCapacity(int maxKeys, long maxBytes) {
+		if (maxKeys < 0 || maxBytes < 0)
+			throw new IllegalArgumentException("Capacity must be nonnegative");
+
+		this.maxKeys = maxKeys;
+		this.maxBytes = maxBytes;
+		evictIfNeeded();
+	}
+
+	private boolean isBounded() {
+		return maxKeys != Integer.MAX_VALUE || maxBytes != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Records the memory used by a parsed public key, which can be discarded (and later loaded again from the source)
+	 * if the source is not null. The size of the key is estimated now, and again by
+	 * {@link #touch(KeyId, IdemixPublicKey)}.
+	 */
+	private void track(KeyId id, IdemixPublicKey pk, PublicKeySource source) {
+		TrackedKey tracked = new TrackedKey(id, pk, source, estimateSize(pk));
+		synchronized (evictable) {
+			untrack(id);
+			if (source != null)
+				evictable.put(id, tracked);
+			else
+				pinned.put(id, tracked);
+			trackedBytes += tracked.size;
+		}
+	}
+
+	/**
+	 * Marks the public key as most recently used, and estimates its size again, as its generator tables may have
+	 * been built since it was added. Discards other keys if the key has grown beyond the capacity of this store.
+	 */
+	private void touch(KeyId id, IdemixPublicKey pk) {
+		long size = estimateSize(pk);
+		boolean grown = false;
+		synchronized (evictable) {
+			TrackedKey tracked = evictable.get(id);
+			if (tracked == null)
+				tracked = pinned.get(id);
+			if (tracked != null && tracked.pk == pk && tracked.size != size) {
+				grown = size > tracked.size;
+				trackedBytes += size - tracked.size;
+				tracked.size = size;
+			}
+		}
+
+		if (grown)
+			evictIfNeeded();
+	}
+
+	/**
+	 * Must be called while holding the lock on evictable.
+	 */
+	private void untrack(KeyId id) {
+		TrackedKey tracked = evictable.remove(id);
+		if (tracked == null)
+			tracked = pinned.remove(id);
+		if (tracked != null)
+			trackedBytes -= tracked.size;
+	}
+
+	/**
+	 * Removes the keys of the issuer from the iterator. Must be called while holding the lock on evictable.
+	 */
+	private void untrack(Iterator<TrackedKey> keys, IssuerIdentifier issuer) {
+		while (keys.hasNext()) {
+			TrackedKey tracked = keys.next();
+			if (tracked.id.issuer.equals(issuer)) {
+				keys.remove();
+				trackedBytes -= tracked.size;
+			}
+		}
+	}
+
+	/**
+	 * Discards least recently used public keys while the parsed keys exceed the capacity of this store, and there are
+	 * keys left that can be discarded. Each discarded key takes constant time.
+	 */
+	private void evictIfNeeded() {
+		if (!isBounded())
+			return;
+
+		synchronized (evictable) {
+			Iterator<TrackedKey> eldest = evictable.values().iterator();
+			while ((evictable.size() + pinned.size() > maxKeys || trackedBytes > maxBytes) && eldest.hasNext()) {
+				TrackedKey tracked = eldest.next();
+				eldest.remove();
+				trackedBytes -= tracked.size;
+				evict(tracked);
+			}
+		}
+	}
+
+	private void evict(TrackedKey tracked) {
+		KeyId id = tracked.id;
+
+		// Make the key loadable again before removing it, so that it is always found by concurrent readers
+		getOrCreate(pendingPublicKeys, id.issuer).put(id.counter, tracked.source);
+		ConcurrentMap<Integer, IdemixPublicKey> keys = publicKeys.get(id.issuer);
+		if (keys != null)
+			keys.remove(id.counter, tracked.pk);
+		evictions.incrementAndGet();
+	}
+
+	/**
+	 * Estimates the memory used by the public key and its generator tables.
+	 */
+	static long estimateSize(IdemixPublicKey pk) {
+		int count = pk.getGeneratorsR().size();
+		long elements = 3 + count;
+
+		FixedBaseComb table = pk.getGeneratorTableS();
+		if (table != null)
+			elements += table.size();
+		for (int i = 0; i < count; i++) {
+			table = pk.getGeneratorTableR(i);
+			if (table != null)
+				elements += table.size();
+		}
+
+		return elements * (pk.getModulus().bitLength() / 8 + BIGINTEGER_OVERHEAD);
+	}
+
+	/**
+	 * @return the number of public key lookups that found a parsed key
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of public key lookups that found no parsed key, and thus had to load it or failed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
 
-		secretKeys.get(issuer).put(counter, sk);
+	/**
+	 * @return the number of public keys that were discarded to stay within the capacity
+	 */
+	public long getEvictions() {
+		return evictions.get();
 	}
 
 	/**
@@ -171,14 +573,11 @@ public class IdemixKeyStore extends KeyStore {
 	 * @throws KeyException if no public keys for the specified issuer are present
 	 */
 	public int getKeyCounter(IssuerIdentifier issuer) throws KeyException {
-		if (publicKeys.get(issuer) == null)
+		Integer counter = latestCounters.get(issuer);
+		if (counter == null)
 			throw new KeyException("No public keys for issuer " + issuer);
 
-		// Put all counters in an array, sort it, and return the biggest element
-		Integer[] counters = new Integer[publicKeys.get(issuer).size()];
-		publicKeys.get(issuer).keySet().toArray(counters);
-		Arrays.sort(counters);
-		return counters[counters.length - 1];
+		return counter;
 	}
 
 	/**
@@ -190,20 +589,216 @@ public class IdemixKeyStore extends KeyStore {
 	 * @throws InfoException if the scheme manager was unknown
 	 */
 	public IdemixPublicKey downloadPublicKey(IssuerIdentifier issuer, int counter) throws IOException, InfoException {
-		IssuerDescription id = DescriptionStore.getInstance().getIssuerDescription(issuer);
-		SchemeManager manager = DescriptionStore.getInstance().getSchemeManager(issuer.getSchemeManagerName());
-		if (manager == null)
-			throw new InfoException("Unknown scheme manager");
-
-		String url = manager.getUrl() + "/" + issuer.getIssuerName() + "/";
-
 		String pkXml = DescriptionStore.inputStreamToString(
-				DescriptionStore.doHttpRequest(url + String.format(PUBLIC_KEY_FILE, counter)));
+				DescriptionStore.doHttpRequest(getPublicKeyUrl(issuer, counter)));
 		IdemixPublicKey pk = new IdemixPublicKey(pkXml, issuer);
 
 		setPublicKey(issuer, pk, counter);
-		if (serializer != null)
+		if (serializer != null) {
+			IssuerDescription id = DescriptionStore.getInstance().getIssuerDescription(issuer);
 			serializer.saveIdemixKey(id, pkXml, counter);
+		}
 		return pk;
 	}
+
+	/**
+	 * Returns the URL from which {@link #downloadPublicKey(IssuerIdentifier, int)} downloads the specified key, which
+	 * is at the scheme manager of the issuer. Subclasses can override this, e.g. to download from a mirror.
+	 * @throws InfoException if the scheme manager was unknown
+	 */
+	protected String getPublicKeyUrl(IssuerIdentifier issuer, int counter) throws InfoException {
+		SchemeManager manager = DescriptionStore.getInstance().getSchemeManager(issuer.getSchemeManagerName());
+		if (manager == null)
+			throw new InfoException("Unknown scheme manager");
+
+		return manager.getUrl() + "/" + issuer.getIssuerName() + "/" + String.format(PUBLIC_KEY_FILE, counter);
+	}
+
+	/**
+	 * Downloads a public key from the scheme manager in the background, see
+	 * {@link #downloadPublicKey(IssuerIdentifier, int)}. Concurrent requests for the same key share a single
+	 * download: as long as the download is in progress, all of them get the same future. If the key is already
+	 * present, a completed future is returned without downloading anything.
+	 *
+	 * @param prefetchNext if true, also start downloading the key with the next counter, if it is not present
+	 *                     or already being downloaded; failure of that download is ignored, and the key is not
+	 *                     prefetched again for ten minutes after its download failed
+	 * @return the key, or an {@link java.util.concurrent.ExecutionException} caused by the {@link IOException} or
+	 *         {@link InfoException} of the download
+	 */
+	public Future<IdemixPublicKey> downloadPublicKeyAsync(IssuerIdentifier issuer, int counter,
+			boolean prefetchNext) {
+		Future<IdemixPublicKey> future = startDownload(issuer, counter);
+		if (prefetchNext && counter < Integer.MAX_VALUE && !recentlyFailed(new KeyId(issuer, counter + 1)))
+			startDownload(issuer, counter + 1);
+		return future;
+	}
+
+	private boolean recentlyFailed(KeyId id) {
+		Long failed = failedDownloads.get(id);
+		if (failed == null)
+			return false;
+		if (System.nanoTime() - failed < PREFETCH_RETRY_NANOS)
+			return true;
+
+		failedDownloads.remove(id, failed);
+		return false;
+	}
+
+	public Future<IdemixPublicKey> downloadPublicKeyAsync(IssuerIdentifier issuer, int counter) {
+		return downloadPublicKeyAsync(issuer, counter, false);
+	}
+
+	private Future<IdemixPublicKey> startDownload(final IssuerIdentifier issuer, final int counter) {
+		final KeyId id = new KeyId(issuer, counter);
+
+		Future<IdemixPublicKey> existing = downloads.get(id);
+		if (existing != null)
+			return existing;
+
+		if (containsPublicKey(issuer, counter)) {
+			FutureTask<IdemixPublicKey> done = new FutureTask<>(new Callable<IdemixPublicKey>() {
+				@Override
+				public IdemixPublicKey call() throws KeyException {
+					return getPublicKey(issuer, counter);
+				}
+			});
+			done.run();
+			return done;
+		}
+
+		Download download = new Download(id, new Callable<IdemixPublicKey>() {
+			@Override
+			public IdemixPublicKey call() throws IOException, InfoException {
+				try {
+					// Publishes the key in the store before returning
+					IdemixPublicKey pk = downloadPublicKey(issuer, counter);
+					failedDownloads.remove(id);
+					return pk;
+				} catch (IOException | InfoException e) {
+					failedDownloads.put(id, System.nanoTime());
+					throw e;
+				}
+			}
+		});
+
+		existing = downloads.putIfAbsent(id, download);
+		if (existing != null)
+			return existing;
+
+		// Another download of the key may have published it and finished between our check above and registering
+		// this one; don't download it again then
+		if (containsPublicKey(issuer, counter)) {
+			downloads.remove(id, download);
+			return startDownload(issuer, counter);
+		}
+
+		try {
+			getDownloadExecutor().execute(download);
+		} catch (RuntimeException e) {
+			// Fail the requests that joined this download in the meantime too, which also unregisters it
+			download.fail(e);
+			throw e;
+		}
+		return download;
+	}
+
+	/**
+	 * A download that unregisters itself from {@link #downloads} once it is complete.
+	 */
+	private final class Download extends FutureTask<IdemixPublicKey> {
+		private final KeyId id;
+
+		Download(KeyId id, Callable<IdemixPublicKey> callable) {
+			super(callable);
+			this.id = id;
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+
+		@Override
+		protected void done() {
+			// Only now that the key is in the store (or the download failed or was cancelled) do later requests
+			// stop joining this download
+			downloads.remove(id, this);
+		}
+	}
+
+	/**
+	 * Sets the executor on which {@link #downloadPublicKeyAsync(IssuerIdentifier, int, boolean)} performs the
+	 * downloads. By default a pool of at most four daemon threads is used.
+	 */
+	public void setDownloadExecutor(ExecutorService executor) {
+		this.downloadExecutor = executor;
+	}
+
+	private ExecutorService getDownloadExecutor() {
+		ExecutorService executor = downloadExecutor;
+		if (executor != null)
+			return executor;
+
+		synchronized (downloads) {
+			if (downloadExecutor == null) {
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(DOWNLOAD_THREADS, DOWNLOAD_THREADS,
+						60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "idemix-key-download-" + count.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+				pool.allowCoreThreadTimeOut(true);
+				downloadExecutor = pool;
+			}
+			return downloadExecutor;
+		}
+	}
+
+	/**
+	 * A parsed public key with its estimated size, and where to load it again from if it is discarded.
+	 */
+	private static final class TrackedKey {
+		final KeyId id;
+		final IdemixPublicKey pk;
+		final PublicKeySource source;
+		long size; // Guarded by the lock on evictable
+
+		TrackedKey(KeyId id, IdemixPublicKey pk, PublicKeySource source, long size) {
+			this.id = id;
+			this.pk = pk;
+			this.source = source;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Identifies a public key within the store.
+	 */
+	private static final class KeyId {
+		final IssuerIdentifier issuer;
+		final int counter;
+
+		KeyId(IssuerIdentifier issuer, int counter) {
+			this.issuer = issuer;
+			this.counter = counter;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof KeyId))
+				return false;
+			KeyId other = (KeyId) o;
+			return counter == other.counter && issuer.equals(other.issuer);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * issuer.hashCode() + counter;
+		}
+	}
 }
@@ -37,11 +37,19 @@ import org.irmacard.credentials.info.FileReader;
 import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.IssuerIdentifier;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
+/**
+ * Loads keys from the scheme manager directories. When a binary sidecar file (see {@link BinaryKeyFormat}) exists next
+ * to the XML file of a key, the key is loaded from the sidecar instead.
+ */
 @SuppressWarnings("unused")
-public class IdemixKeyStoreDeserializer {
+public class IdemixKeyStoreDeserializer implements PublicKeySource {
 	private FileReader fileReader;
 
 	public IdemixKeyStoreDeserializer(URI coreLocation) {
@@ -60,24 +68,60 @@ public class IdemixKeyStoreDeserializer {
 		return String.format(issuer.getPath(false) + "/" + IdemixKeyStore.PRIVATE_KEY_FILE, counter);
 	}
 
+	public String getBinaryPublicKeyPath(IssuerIdentifier issuer, int counter) {
+		return String.format(issuer.getPath(false) + "/" + IdemixKeyStore.PUBLIC_KEY_BINARY_FILE, counter);
+	}
+
+	public String getBinaryPrivateKeyPath(IssuerIdentifier issuer, int counter) {
+		return String.format(issuer.getPath(false) + "/" + IdemixKeyStore.PRIVATE_KEY_BINARY_FILE, counter);
+	}
+
 	public ArrayList<Integer> getPublicKeyCounters(IssuerIdentifier issuer) throws InfoException {
 		String[] files = fileReader.list(issuer.getPath(false) + "/PublicKeys");
 
-		ArrayList<Integer> counters = new ArrayList<>(files.length);
+		// A key may be present both as XML and as binary sidecar, so remove duplicates
+		Set<Integer> counters = new LinkedHashSet<>(files.length);
 		for (String filename : files) {
 			if (filename.startsWith("."))
 				continue;
 			counters.add(Integer.valueOf(filename.substring(0, filename.length() - 4)));
 		}
 
-		return counters;
+		return new ArrayList<>(counters);
 	}
 
+	@Override
 	public IdemixPublicKey loadPublicKey(IssuerIdentifier issuer, int counter) throws InfoException {
+		String binary = getBinaryPublicKeyPath(issuer, counter);
+		if (fileReader.containsFile(binary)) {
+			InputStream stream = fileReader.retrieveFile(binary);
+			try {
+				return BinaryKeyFormat.readPublicKey(stream, issuer, counter);
+			} finally {
+				close(stream);
+			}
+		}
+
 		return new IdemixPublicKey(fileReader.retrieveFile(getPublicKeyPath(issuer, counter)), issuer);
 	}
 
 	public IdemixSecretKey loadPrivateKey(IssuerIdentifier issuer, int counter) throws InfoException {
+		String binary = getBinaryPrivateKeyPath(issuer, counter);
+		if (fileReader.containsFile(binary)) {
+			InputStream stream = fileReader.retrieveFile(binary);
+			try {
+				return BinaryKeyFormat.readSecretKey(stream, counter);
+			} finally {
+				close(stream);
+			}
+		}
+
 		return new IdemixSecretKey(fileReader.retrieveFile(getPrivateKeyPath(issuer, counter)));
 	}
+
+	private static void close(InputStream stream) {
+		try {
+			stream.close();
+		} catch (IOException e) { /* ignore */ }
+	}
 }
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.info;
+
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.util.FixedBaseComb;
+import org.irmacard.credentials.info.InfoException;
+import org.irmacard.credentials.info.IssuerIdentifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>A single file containing many public keys, including their fixed-base generator tables (see
+ * {@link IdemixPublicKey#precomputeGeneratorTables()}) if these were built. The file is memory-mapped when it is
+ * opened, and only its index is read then; each key is decoded from the mapped file when it is first requested,
+ * which involves no XML parsing and no exponentiations. This allows a fresh process to get its keys into the same
+ * state as the process that wrote the file, at little cost. See also {@link IdemixKeyStore#saveCache(File)} and
+ * {@link IdemixKeyStore#loadCache(File)}.</p>
+ *
+ * <p>The file starts with the magic bytes "IRMC", a version byte, the number of keys and the length of the index in
+ * bytes (both as int). The index contains for each key the issuer identifier (as produced by
+ * {@link DataOutputStream#writeUTF(String)}), the counter, and the offset and length of the key data as ints, where
+ * offsets are relative to the end of the index. The key data consists of the public key in {@link BinaryKeyFormat},
+ * followed by a byte indicating whether tables follow. If so, the table of S and the number of R_i follow, and then
+ * the table of each R_i. Each table consists of the maximum exponent bitlength, the number of rows and the number of
+ * blocks as ints, followed by the table elements (length-prefixed magnitudes, as in {@link BinaryKeyFormat}).</p>
+ *
+ * <p>Secret keys are never written to the cache file. Instances are immutable and can be shared between threads.</p>
+ */
+public class KeyCacheFile implements PublicKeySource {
+	public static final int VERSION = 2;
+
+	private static final byte[] MAGIC = { 'I', 'R', 'M', 'C' };
+	private static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 4;
+
+	private final MappedByteBuffer buffer;
+	private final int dataStart;
+
+	// For each key its offset and length within the data section
+	private final Map<IssuerIdentifier, Map<Integer, int[]>> index;
+
+	private KeyCacheFile(MappedByteBuffer buffer, int dataStart, Map<IssuerIdentifier, Map<Integer, int[]>> index) {
+		this.buffer = buffer;
+		this.dataStart = dataStart;
+		this.index = index;
+	}
+
+	/**
+	 * Maps the file into memory and reads its index.
+	 * @throws InfoException if the file is not a cache file of a supported version
+	 */
+	public static KeyCacheFile open(File file) throws IOException, InfoException {
+		MappedByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new InfoException("Key cache file too large");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close(); // The mapping remains valid
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer.duplicate()));
+
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			for (int i = 0; i < MAGIC.length; i++)
+				if (magic[i] != MAGIC[i])
+					throw new InfoException("Not a key cache file");
+
+			int version = in.readUnsignedByte();
+			if (version != VERSION)
+				throw new InfoException("Unsupported key cache version " + version);
+
+			int count = in.readInt();
+			int indexLength = in.readInt();
+			int dataStart = HEADER_LENGTH + indexLength;
+			if (count < 0 || indexLength < 0 || dataStart > buffer.capacity())
+				throw new InfoException("Corrupt key cache file");
+
+			Map<IssuerIdentifier, Map<Integer, int[]>> index = new HashMap<>();
+			for (int i = 0; i < count; i++) {
+				IssuerIdentifier issuer = new IssuerIdentifier(in.readUTF());
+				int counter = in.readInt();
+				int offset = in.readInt();
+				int length = in.readInt();
+				if (offset < 0 || length < 0 || (long) dataStart + offset + length > buffer.capacity())
+					throw new InfoException("Corrupt key cache file");
+
+				Map<Integer, int[]> counters = index.get(issuer);
+				if (counters == null) {
+					counters = new HashMap<>();
+					index.put(issuer, counters);
+				}
+				counters.put(counter, new int[] { offset, length });
+			}
+
+			return new KeyCacheFile(buffer, dataStart, index);
+		} catch (IOException e) {
+			throw new InfoException("Could not read key cache file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the keys, along with their generator tables if they have them, to the specified file. The file is
+	 * first written under a temporary name and then renamed, so that processes opening the file never see a
+	 * partially written one.
+	 * @throws IllegalArgumentException if one of the keys has no issuer identifier
+	 */
+	public static void write(Collection<IdemixPublicKey> keys, File file) throws IOException {
+		Map<IssuerIdentifier, Map<Integer, IdemixPublicKey>> indexed = new HashMap<>();
+		for (IdemixPublicKey pk : keys) {
+			if (pk.getIssuerIdentifier() == null)
+				throw new IllegalArgumentException("Public key has no issuer identifier");
+
+			Map<Integer, IdemixPublicKey> counters = indexed.get(pk.getIssuerIdentifier());
+			if (counters == null) {
+				counters = new HashMap<>();
+				indexed.put(pk.getIssuerIdentifier(), counters);
+			}
+			counters.put(pk.getCounter(), pk);
+		}
+
+		write(indexed, file);
+	}
+
+	/**
+	 * Writes the keys under the specified issuers and counters, regardless of the issuer identifier and counter set
+	 * on the keys themselves, which are left untouched.
+	 * @see #write(Collection, File)
+	 */
+	static void write(Map<IssuerIdentifier, Map<Integer, IdemixPublicKey>> keys, File file) throws IOException {
+		List<byte[]> entries = new ArrayList<>();
+		ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		DataOutputStream indexOut = new DataOutputStream(indexBytes);
+
+		int offset = 0;
+		for (Map.Entry<IssuerIdentifier, Map<Integer, IdemixPublicKey>> issuerKeys : keys.entrySet()) {
+			IssuerIdentifier issuer = issuerKeys.getKey();
+			for (Map.Entry<Integer, IdemixPublicKey> key : issuerKeys.getValue().entrySet()) {
+				byte[] entry = encode(key.getValue(), issuer, key.getKey());
+				entries.add(entry);
+
+				indexOut.writeUTF(issuer.toString());
+				indexOut.writeInt(key.getKey());
+				indexOut.writeInt(offset);
+				indexOut.writeInt(entry.length);
+				offset += entry.length;
+			}
+		}
+		indexOut.flush();
+
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temp);
+		try {
+			DataOutputStream out = new DataOutputStream(stream);
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(entries.size());
+			out.writeInt(indexBytes.size());
+			indexBytes.writeTo(out);
+			for (byte[] entry : entries)
+				out.write(entry);
+			out.flush();
+			stream.getFD().sync();
+		} finally {
+			stream.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			// Some platforms do not replace existing files when renaming
+			if (!file.delete() || !temp.renameTo(file))
+				throw new IOException("Could not move key cache file into place");
+		}
+	}
+
+	private static byte[] encode(IdemixPublicKey pk, IssuerIdentifier issuer, int counter) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		BinaryKeyFormat.write(pk, issuer, counter, out);
+
+		FixedBaseComb S_table = pk.getGeneratorTableS();
+		out.writeBoolean(S_table != null);
+		if (S_table != null) {
+			int count = pk.getGeneratorsR().size();
+			writeTable(out, S_table);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++)
+				writeTable(out, pk.getGeneratorTableR(i));
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeTable(DataOutputStream out, FixedBaseComb table) throws IOException {
+		out.writeInt(table.getMaxBits());
+		out.writeInt(table.getRows());
+		out.writeInt(table.getBlocks());
+		for (int j = 0; j < table.getBlocks(); j++)
+			for (int u = 0; u < 1 << table.getRows(); u++)
+				BinaryKeyFormat.writeInteger(out, table.getTableElement(j, u));
+	}
+
+	private static FixedBaseComb readTable(DataInputStream in, BigInteger base, BigInteger modulus)
+			throws IOException, InfoException {
+		int maxBits = in.readInt();
+		int rows = in.readInt();
+		int blocks = in.readInt();
+		if (maxBits <= 0 || rows <= 0 || rows > 16 || blocks <= 0 || blocks > maxBits)
+			throw new InfoException("Corrupt generator table in key cache file");
+
+		BigInteger[][] table = new BigInteger[blocks][1 << rows];
+		for (int j = 0; j < blocks; j++)
+			for (int u = 0; u < 1 << rows; u++)
+				table[j][u] = BinaryKeyFormat.readInteger(in);
+
+		try {
+			return FixedBaseComb.fromTable(base, modulus, maxBits, rows, blocks, table);
+		} catch (IllegalArgumentException e) {
+			throw new InfoException("Corrupt generator table in key cache file");
+		}
+	}
+
+	public Set<IssuerIdentifier> getIssuers() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	public Set<Integer> getCounters(IssuerIdentifier issuer) {
+		Map<Integer, int[]> counters = index.get(issuer);
+		if (counters == null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(counters.keySet());
+	}
+
+	public boolean contains(IssuerIdentifier issuer, int counter) {
+		Map<Integer, int[]> counters = index.get(issuer);
+		return counters != null && counters.containsKey(counter);
+	}
+
+	/**
+	 * Decodes the specified key, and installs its generator tables if the file contains them. Each call returns a
+	 * new instance.
+	 * @throws InfoException if the file does not contain the key, or if it is corrupt
+	 */
+	@Override
+	public IdemixPublicKey loadPublicKey(IssuerIdentifier issuer, int counter) throws InfoException {
+		Map<Integer, int[]> counters = index.get(issuer);
+		int[] location = counters != null ? counters.get(counter) : null;
+		if (location == null)
+			throw new InfoException("Public key " + counter + " for issuer " + issuer + " not in key cache");
+
+		ByteBuffer entry = buffer.duplicate();
+		entry.position(dataStart + location[0]);
+		entry.limit(dataStart + location[0] + location[1]);
+		DataInputStream in = new DataInputStream(new ByteBufferInputStream(entry));
+
+		IdemixPublicKey pk = BinaryKeyFormat.readPublicKey(in, issuer, counter);
+		try {
+			if (in.readBoolean()) {
+				BigInteger n = pk.getModulus();
+				FixedBaseComb S_table = readTable(in, pk.getGeneratorS(), n);
+				int count = in.readInt();
+				if (count != pk.getGeneratorsR().size())
+					throw new InfoException("Corrupt generator table in key cache file");
+				FixedBaseComb[] R_tables = new FixedBaseComb[count];
+				for (int i = 0; i < count; i++)
+					R_tables[i] = readTable(in, pk.getGeneratorR(i), n);
+
+				pk.setGeneratorTables(S_table, R_tables);
+			}
+		} catch (IOException e) {
+			throw new InfoException("Could not read key cache file: " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			throw new InfoException("Generator tables in key cache file do not match the key");
+		}
+
+		return pk;
+	}
+
+	/**
+	 * Reads from a ByteBuffer, from its position up to its limit.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
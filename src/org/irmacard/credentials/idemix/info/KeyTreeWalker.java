@@ -36,7 +36,26 @@ import org.irmacard.credentials.info.IssuerDescription;
 import org.irmacard.credentials.info.IssuerIdentifier;
 import org.irmacard.credentials.info.StoreException;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 public class KeyTreeWalker {
+	/**
+	 * How the keys are loaded into the {@link IdemixKeyStore}.
+	 */
+	public enum Bootstrap {
+		/** Parse all keys one after the other */
+		SERIAL,
+		/** Parse all keys concurrently on a fork/join pool */
+		PARALLEL,
+		/** Only record which keys exist; each key is parsed when it is first requested */
+		LAZY
+	}
+
 	private IdemixKeyStoreDeserializer deserializer;
 
 	public KeyTreeWalker(IdemixKeyStoreDeserializer deserializer) {
@@ -44,18 +63,91 @@ public class KeyTreeWalker {
 	}
 
 	public void deserializeIdemixKeyStore(IdemixKeyStore store) throws InfoException {
+		deserializeIdemixKeyStore(store, Bootstrap.SERIAL);
+	}
+
+	public void deserializeIdemixKeyStore(IdemixKeyStore store, Bootstrap bootstrap) throws InfoException {
+		switch (bootstrap) {
+			case PARALLEL:
+				ForkJoinPool pool = new ForkJoinPool();
+				try {
+					deserializeIdemixKeyStore(store, pool);
+				} finally {
+					pool.shutdown();
+				}
+				break;
+			case LAZY:
+				indexIdemixKeyStore(store);
+				break;
+			default:
+				DescriptionStore ds = DescriptionStore.getInstance();
+
+				for (IssuerDescription id : ds.getIssuerDescriptions()) {
+					IssuerIdentifier issuer = id.getIdentifier();
+
+					for (int i : deserializer.getPublicKeyCounters(issuer))
+						loadKeys(store, issuer, i);
+				}
+		}
+	}
+
+	/**
+	 * Parses all keys concurrently on the specified pool, and returns once all of them have been added to the store.
+	 * @throws InfoException if one of the public keys could not be loaded
+	 */
+	public void deserializeIdemixKeyStore(final IdemixKeyStore store, ForkJoinPool pool) throws InfoException {
 		DescriptionStore ds = DescriptionStore.getInstance();
 
+		List<Callable<Void>> tasks = new ArrayList<>();
 		for (IssuerDescription id : ds.getIssuerDescriptions()) {
-			IssuerIdentifier issuer = id.getIdentifier();
+			final IssuerIdentifier issuer = id.getIdentifier();
 
-			for (int i : deserializer.getPublicKeyCounters(issuer)) {
-				// We expect this public key here, throw exception if it's not here
-				store.setPublicKey(issuer, deserializer.loadPublicKey(issuer, i), i);
-				try {
-					store.setSecretKey(issuer, deserializer.loadPrivateKey(issuer, i), i);
-				} catch (InfoException e) { /* ignore absence of public or private key */ }
+			for (final int i : deserializer.getPublicKeyCounters(issuer)) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws InfoException {
+						loadKeys(store, issuer, i);
+						return null;
+					}
+				});
 			}
 		}
+
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InfoException("Interrupted while loading keys");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InfoException)
+				throw (InfoException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new InfoException("Could not load keys: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Records in the store which keys are available, without parsing any of them. The keys are loaded from the
+	 * deserializer when they are first requested from the store.
+	 */
+	public void indexIdemixKeyStore(IdemixKeyStore store) throws InfoException {
+		DescriptionStore ds = DescriptionStore.getInstance();
+
+		for (IssuerDescription id : ds.getIssuerDescriptions()) {
+			IssuerIdentifier issuer = id.getIdentifier();
+
+			for (int i : deserializer.getPublicKeyCounters(issuer))
+				store.setLazyKeys(issuer, i, deserializer);
+		}
+	}
+
+	private void loadKeys(IdemixKeyStore store, IssuerIdentifier issuer, int counter) throws InfoException {
+		// We expect this public key here, throw exception if it's not here
+		store.setPublicKey(issuer, deserializer.loadPublicKey(issuer, counter), counter, deserializer);
+		try {
+			store.setSecretKey(issuer, deserializer.loadPrivateKey(issuer, counter), counter);
+		} catch (InfoException e) { /* ignore absence of public or private key */ }
 	}
 }
@@ -58,15 +58,49 @@ public abstract class ProofBuilder {
 	public abstract Proof createProof(BigInteger challenge);
 	public abstract IdemixPublicKey getPublicKey();
 
+	/** Commitments computed ahead of time by {@link #prepare()}, not yet used in a proof */
+	private Commitments prepared;
+
 	public ProofBuilder generateRandomizers() {
 		HashMap<String, BigInteger> h = new HashMap<>();
 		generateRandomizers(h);
 		return this;
 	}
 
-	public Proof createProof(BigInteger context, BigInteger nonce1) {
+	/**
+	 * Generates the randomizers and calculates the commitments ahead of time,
+	 * as these do not depend on the context or nonce. The next call to
+	 * {@link #createProof(BigInteger, BigInteger)} then only needs to compute the
+	 * challenge and the responses. The prepared commitments are used for one
+	 * proof only.
+	 */
+	public Commitments prepare() {
 		generateRandomizers();
-		Commitments coms = calculateCommitments();
+		prepared = calculateCommitments();
+		return prepared;
+	}
+
+	public boolean isPrepared() {
+		return prepared != null;
+	}
+
+	/**
+	 * Forgets the commitments computed by {@link #prepare()}. Subclasses call this
+	 * whenever they use or replace the randomizers, so that a prepared proof is
+	 * never answered for a second challenge.
+	 */
+	protected void discardPrepared() {
+		prepared = null;
+	}
+
+	public Proof createProof(BigInteger context, BigInteger nonce1) {
+		Commitments coms = prepared;
+		prepared = null;
+		if (coms == null) {
+			generateRandomizers();
+			coms = calculateCommitments();
+		}
+
 		BigInteger challenge = coms.calculateChallenge(context, nonce1);
 		return createProof(challenge);
 	}
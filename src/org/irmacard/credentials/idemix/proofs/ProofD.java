@@ -40,6 +40,7 @@ import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.KeyException;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -73,11 +74,50 @@ public class ProofD implements Proof {
 		return verify(pk, context, nonce1, null);
 	}
 
+	/**
+	 * Verifies many disclosure proofs against the same public key. As the
+	 * challenge of each proof is a hash over its own commitment, that commitment
+	 * has to be reconstructed exactly for every proof, so the proofs cannot be
+	 * combined into one random linear combination. Instead the work on the
+	 * shared generators S and R_i can be amortized by building the fixed-base
+	 * tables of the public key beforehand, with
+	 * {@link IdemixPublicKey#precomputeGeneratorTables()}; this method does not
+	 * do so itself, as building them costs about as much as 60 to 80
+	 * exponentiations per generator and changes the shared key. With the tables,
+	 * each proof costs one multi-exponentiation over its own A and Z.
+	 *
+	 * @param pk		the public key against which all proofs should verify
+	 * @param proofs	the proofs
+	 * @param contexts	the context of each proof
+	 * @param nonces	the nonce of each proof
+	 * @return			the indices of the proofs that do not verify, in increasing order
+	 */
+	public static List<Integer> verifyBatch(IdemixPublicKey pk, List<ProofD> proofs,
+			List<BigInteger> contexts, List<BigInteger> nonces) {
+		if (proofs.size() != contexts.size() || proofs.size() != nonces.size()) {
+			throw new IllegalArgumentException("Need a context and a nonce for every proof");
+		}
+
+		List<Integer> failed = new ArrayList<>();
+		for (int i = 0; i < proofs.size(); i++) {
+			if (!proofs.get(i).verify(pk, contexts.get(i), nonces.get(i))) {
+				failed.add(i);
+			}
+		}
+
+		return failed;
+	}
+
 	public boolean verify(IdemixPublicKey pk, BigInteger context, BigInteger nonce1, BigInteger challenge) {
 		if(!checkSizeResponses(pk)) {
 			return false;
 		}
 
+		if(!checkAttributeIndices()) {
+			System.out.println("Attribute both disclosed and hidden");
+			return false;
+		}
+
 		BigInteger c_prime = challenge;
 		if (c_prime == null) {
 			BigInteger Z = reconstructZ(pk);
@@ -137,35 +177,39 @@ public class ProofD implements Proof {
 		return true;
 	}
 
+	/**
+	 * Check that no attribute is both disclosed and hidden.
+	 */
+	boolean checkAttributeIndices() {
+		for (Integer index : a_disclosed.keySet()) {
+			if (a_responses.containsKey(index)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	public BigInteger reconstructZ(IdemixPublicKey pk) {
 		IdemixSystemParameters params = pk.getSystemParameters();
-		BigInteger n = pk.getModulus();
 
-		// known = Z / ( prod_{disclosed} R_i^{a_i} * A^{2^{l_e - 1}} )
-		BigInteger numerator = A.modPow(Crypto.TWO.pow(params.get_l_e() - 1), n);
-		for(Entry<Integer, BigInteger> entry : a_disclosed.entrySet()) {
-			Integer idx = entry.getKey();
-			BigInteger attribute = entry.getValue();
-
-			BigInteger tmp = pk.getGeneratorR(idx).modPow(attribute, n);
-			numerator = numerator.multiply(tmp).mod(n);
+		if (!checkAttributeIndices()) {
+			throw new IllegalArgumentException("Attribute both disclosed and hidden");
 		}
-		BigInteger known = pk.getGeneratorZ().multiply(numerator.modInverse(n));
-		BigInteger known_c = known.modPow(c.negate(), n);
-
-		BigInteger Ae = A.modPow(e_response, n);
-		BigInteger Sv = pk.getGeneratorS().modPow(v_response, n);
-		BigInteger Rs = BigInteger.ONE;
-		for(Entry<Integer, BigInteger> entry : a_responses.entrySet()) {
-			Integer idx = entry.getKey();
-			BigInteger response = entry.getValue();
-
-			BigInteger tmp = pk.getGeneratorR(idx).modPow(response, n);
-			Rs = Rs.multiply(tmp).mod(n);
+
+		// Z = known^{-c} * A^{e_response} * prod_{undisclosed} R_i^{a_response_i} * S^{v_response}
+		// where known = Z / ( prod_{disclosed} R_i^{a_i} * A^{2^{l_e - 1}} ). Expanding
+		// known^{-c} allows us to compute everything in one multi-exponentiation.
+		HashMap<Integer, BigInteger> rExponents = new HashMap<>(a_responses);
+		for(Entry<Integer, BigInteger> entry : a_disclosed.entrySet()) {
+			rExponents.put(entry.getKey(), entry.getValue().multiply(c));
 		}
 
-		// Return Z
-		return known_c.multiply(Ae).multiply(Rs).multiply(Sv).mod(n);
+		BigInteger Aexp = e_response.add(c.shiftLeft(params.get_l_e() - 1));
+
+		return pk.representToGenerators(v_response, rExponents,
+				Arrays.asList(pk.getGeneratorZ(), A),
+				Arrays.asList(c.negate(), Aexp));
 	}
 
 	public BigInteger get_c() {
@@ -31,7 +31,6 @@
 package org.irmacard.credentials.idemix.proofs;
 
 import java.math.BigInteger;
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -42,7 +41,9 @@ import org.irmacard.credentials.idemix.CLSignature;
 import org.irmacard.credentials.idemix.IdemixCredential;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
+import org.irmacard.credentials.idemix.RandomizedSignaturePool;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.RandomnessProvider;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
 
 public class ProofDBuilder extends ProofBuilder {
@@ -93,24 +94,26 @@ public class ProofDBuilder extends ProofBuilder {
 
 	@Override
 	public ProofBuilder generateRandomizers(Map<String, BigInteger> fixed) {
-		SecureRandom rnd = new SecureRandom();
+		discardPrepared();
+		RandomnessProvider rnd = RandomnessProvider.getInstance();
 		ProofDRandomizers rand = new ProofDRandomizers();
 
 		IdemixPublicKey issuer_pk = credential.getPublicKey();
 		IdemixSystemParameters params = issuer_pk.getSystemParameters();
-		rand.e_randomizer = new BigInteger(params.get_l_e_commit(), rnd);
-		rand.v_randomizer = new BigInteger(params.get_l_v_commit(), rnd);
+		rand.e_randomizer = rnd.randomBigInteger(params.get_l_e_commit());
+		rand.v_randomizer = rnd.randomBigInteger(params.get_l_v_commit());
 
+		BigInteger[] a_randomizers = rnd.randomBigIntegers(params.get_l_m_commit(), undisclosed_attributes.size());
 		rand.a_randomizers = new HashMap<>();
-		for(Integer i : undisclosed_attributes) {
-			rand.a_randomizers.put(i, new BigInteger(params.get_l_m_commit(), rnd));
+		for(int j = 0; j < a_randomizers.length; j++) {
+			rand.a_randomizers.put(undisclosed_attributes.get(j), a_randomizers[j]);
 		}
 
 		if(fixed.containsKey(USER_SECRET_KEY)) {
 			rand.a_randomizers.put(0, fixed.get(USER_SECRET_KEY));
 		}
 
-		rand.rand_sig = credential.getSignature().randomize(issuer_pk);
+		rand.rand_sig = RandomizedSignaturePool.next(credential);
 
 		this.rand = rand;
 		return this;
@@ -126,11 +129,10 @@ public class ProofDBuilder extends ProofBuilder {
 		// Z = A^{e_commit} * S^{v_commit}
 		//     PROD_{i \in undisclosed} ( R_i^{a_commits{i}} )
 		BigInteger Ae = rand.rand_sig.getA().modPow(rand.e_randomizer, n);
-		BigInteger Sv = issuer_pk.getGeneratorS().modPow(rand.v_randomizer, n);
+		BigInteger Sv = issuer_pk.modPowS(rand.v_randomizer);
 		coms.Z = Ae.multiply(Sv).mod(n);
 		for(Integer i : undisclosed_attributes) {
-			coms.Z = coms.Z.multiply(issuer_pk.getGeneratorR(i).
-					modPow(rand.a_randomizers.get(i), n)).mod(n);
+			coms.Z = coms.Z.multiply(issuer_pk.modPowR(i, rand.a_randomizers.get(i))).mod(n);
 		}
 
 		coms.A = rand.rand_sig.getA();
@@ -139,6 +141,7 @@ public class ProofDBuilder extends ProofBuilder {
 	}
 
 	public ProofD createProof(BigInteger challenge) {
+		discardPrepared();
 		IdemixPublicKey issuer_pk = credential.getPublicKey();
 		IdemixSystemParameters params = issuer_pk.getSystemParameters();
 
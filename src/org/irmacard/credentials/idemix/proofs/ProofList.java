@@ -32,6 +32,12 @@ package org.irmacard.credentials.idemix.proofs;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.irmacard.credentials.Attributes;
 import org.irmacard.credentials.CredentialsException;
@@ -58,6 +64,10 @@ import org.irmacard.credentials.info.KeyException;
  *
  * <p>Construct instances of this class using {@link ProofListBuilder}. Currently it only supports having a single
  * {@link ProofU}.</p>
+ *
+ * <p>By default the proofs are verified one after the other on the calling thread. If an executor is set using
+ * {@link #setExecutor(ExecutorService)}, the challenge contributions and the per-proof checks are instead computed
+ * concurrently on that executor, with the help of the calling thread.</p>
  */
 @SuppressWarnings("unused")
 public class ProofList extends ArrayList<Proof> {
@@ -69,6 +79,9 @@ public class ProofList extends ArrayList<Proof> {
 	// used to retain backwards compatibility (defaulting to DisclosureProof)
 	transient private boolean isSig = false;
 
+	// Optional executor on which the proofs are verified concurrently
+	transient private ExecutorService executor;
+
 	public ProofList() {}
 
 	public ProofList(boolean isSig) {
@@ -97,20 +110,31 @@ public class ProofList extends ArrayList<Proof> {
 	 * Checks if the contained proofs are cryptographically bound with respect to the specified context and nonce.
 	 */
 	public boolean isBound(BigInteger context, BigInteger nonce) {
-		BigInteger challenge, response;
-
 		if (size() == 0)
 			return true; // All proofs (i.e. none) are bound to all other proofs (i.e. none)
 
-		challenge = get(0).get_c();
-		response = get(0).getSecretKeyResponse();
+		return getBoundChallenge(context, nonce) != null;
+	}
+
+	/**
+	 * Returns the challenge of the proofs if they are cryptographically bound with respect to the specified context
+	 * and nonce, and null otherwise. This allows {@link #verify(BigInteger, BigInteger, boolean)} to check the binding
+	 * and obtain the challenge with a single reconstruction of the challenge contributions.
+	 */
+	private BigInteger getBoundChallenge(BigInteger context, BigInteger nonce) {
+		BigInteger challenge = get(0).get_c();
+		BigInteger response = get(0).getSecretKeyResponse();
 
 		for (Proof proof : this) {
 			if (!challenge.equals(proof.get_c()) || !response.equals(proof.getSecretKeyResponse()))
-				return false;
+				return null;
+			// The challenge contribution of a malformed disclosure proof cannot be reconstructed
+			if (proof instanceof ProofD && !((ProofD) proof).checkAttributeIndices())
+				return null;
 		}
 
-		return challenge.equals(reconstructChallenge(context, nonce));
+		BigInteger reconstructed = reconstructChallenge(context, nonce);
+		return challenge.equals(reconstructed) ? reconstructed : null;
 	}
 
 	/**
@@ -126,16 +150,17 @@ public class ProofList extends ArrayList<Proof> {
 		if (publicKeys == null || (size() != publicKeys.size()))
 			throw new RuntimeException("No public keys to verify the proofs against");
 
-		boolean isBound = isBound(context, nonce);
+		BigInteger challenge = getBoundChallenge(context, nonce);
+		boolean isBound = challenge != null;
 		if (shouldBeBound && !isBound) {
 			return false;
 		}
 
 		Proof proof;
 		IdemixPublicKey pk;
-		BigInteger challenge = null;
-		if (isBound)
-			challenge = reconstructChallenge(context, nonce);
+
+		if (executor != null)
+			return verifyConcurrently(context, nonce, challenge);
 
 		for (int i=0; i < size(); ++i) {
 			proof = get(i);
@@ -155,6 +180,131 @@ public class ProofList extends ArrayList<Proof> {
 		return true;
 	}
 
+	/**
+	 * Verifies each proof as a separate task on the executor, against the given challenge if it is non-null. As soon as
+	 * one of the proofs turns out to be invalid the remaining tasks are cancelled. Note that tasks that have already
+	 * started run to completion, as the exponentiations in them cannot be interrupted.
+	 */
+	private boolean verifyConcurrently(final BigInteger context, final BigInteger nonce, final BigInteger challenge) {
+		List<Callable<Boolean>> tasks = new ArrayList<>(size());
+
+		for (int i = 0; i < size(); ++i) {
+			final Proof proof = get(i);
+			final IdemixPublicKey pk = publicKeys.get(i);
+			if (pk == null)
+				throw new RuntimeException("Missing public key for proof " + i + " of " + size());
+
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					if (challenge != null)
+						return proof.verify(pk, context, nonce, challenge);
+					else
+						return proof.verify(pk, context, nonce);
+				}
+			});
+		}
+
+		List<FutureTask<Boolean>> futures = submitAll(tasks);
+		try {
+			for (FutureTask<Boolean> future : futures)
+				if (!runOrGet(future))
+					return false;
+
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while verifying proofs", e);
+		} catch (ExecutionException e) {
+			throw rethrow(e);
+		} finally {
+			cancelAll(futures);
+		}
+	}
+
+	/**
+	 * Computes the challenge contribution of each proof, concurrently if an executor is set. The contributions are
+	 * returned in the order of the proofs.
+	 */
+	private List<List<BigInteger>> getChallengeContributions() {
+		List<List<BigInteger>> contributions = new ArrayList<>(size());
+
+		if (executor == null) {
+			for (int i = 0; i < size(); ++i)
+				contributions.add(get(i).getChallengeContribution(publicKeys.get(i)));
+			return contributions;
+		}
+
+		List<Callable<List<BigInteger>>> tasks = new ArrayList<>(size());
+		for (int i = 0; i < size(); ++i) {
+			final Proof proof = get(i);
+			final IdemixPublicKey pk = publicKeys.get(i);
+			tasks.add(new Callable<List<BigInteger>>() {
+				@Override
+				public List<BigInteger> call() {
+					return proof.getChallengeContribution(pk);
+				}
+			});
+		}
+
+		List<FutureTask<List<BigInteger>>> futures = submitAll(tasks);
+		try {
+			for (FutureTask<List<BigInteger>> future : futures)
+				contributions.add(runOrGet(future));
+
+			return contributions;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while computing challenge contributions", e);
+		} catch (ExecutionException e) {
+			throw rethrow(e);
+		} finally {
+			cancelAll(futures);
+		}
+	}
+
+	/**
+	 * Hands the tasks to the executor. Tasks that the executor rejects are left to {@link #runOrGet(FutureTask)}.
+	 */
+	private <T> List<FutureTask<T>> submitAll(List<Callable<T>> tasks) {
+		List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+		for (Callable<T> task : tasks) {
+			FutureTask<T> future = new FutureTask<>(task);
+			futures.add(future);
+			try {
+				executor.execute(future);
+			} catch (RejectedExecutionException e) {
+				// The calling thread runs it
+			}
+		}
+		return futures;
+	}
+
+	/**
+	 * Runs the task on the calling thread if no worker of the executor has started it yet, and returns its result.
+	 * The calling thread thus only waits for tasks that are actually running, so that verifying cannot deadlock when
+	 * it is itself running on the executor, e.g. in an {@link org.irmacard.credentials.idemix.AsyncVerifier}, or when
+	 * the executor is busy or saturated.
+	 */
+	private static <T> T runOrGet(FutureTask<T> future) throws InterruptedException, ExecutionException {
+		future.run(); // Does nothing if the task was already started
+		return future.get();
+	}
+
+	private static void cancelAll(List<? extends Future<?>> futures) {
+		for (Future<?> future : futures)
+			future.cancel(true);
+	}
+
+	private static RuntimeException rethrow(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException)
+			return (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		return new RuntimeException(cause);
+	}
+
 	public boolean isValid() {
 		return isValidOn(Calendar.getInstance().getTime());
 	}
@@ -232,16 +382,11 @@ public class ProofList extends ArrayList<Proof> {
 	 * otherwise have been used as the challenge.</p>
 	 */
 	private BigInteger reconstructChallenge(BigInteger context, BigInteger nonce) {
-		Proof proof;
-		IdemixPublicKey pk;
 		List<BigInteger> toHash = new ArrayList<>(2*size() + 2);
 
 		toHash.add(context);
-		for (int i = 0; i < size(); ++i) {
-			proof = get(i);
-			pk = publicKeys.get(i);
-			toHash.addAll(proof.getChallengeContribution(pk));
-		}
+		for (List<BigInteger> contribution : getChallengeContributions())
+			toHash.addAll(contribution);
 		toHash.add(nonce);
 
 		BigInteger[] toHashArray = toHash.toArray(new BigInteger[toHash.size()]);
@@ -296,6 +441,20 @@ public class ProofList extends ArrayList<Proof> {
 		publicKeys.set(i, pk);
 	}
 
+	/**
+	 * Sets the executor on which {@link #verify(BigInteger, BigInteger, boolean)} computes the challenge contributions
+	 * and checks the proofs concurrently; null (the default) verifies on the calling thread. The calling thread runs
+	 * the tasks that no worker has started yet, so the executor may be the one the caller itself runs on, and tasks
+	 * that the executor rejects are not lost. The executor is not shut down by this class.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
 	/**
 	 * Set isSig to true to indicate that this is an IRMA signature instead of disclosure proof
 	 */
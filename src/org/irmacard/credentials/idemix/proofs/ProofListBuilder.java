@@ -35,10 +35,10 @@ import org.irmacard.credentials.idemix.IdemixCredential;
 import org.irmacard.credentials.idemix.IdemixSystemParameters1024;
 import org.irmacard.credentials.idemix.proofs.ProofPBuilder.ProofPCommitments;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.RandomnessProvider;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
 
 import java.math.BigInteger;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -57,6 +57,8 @@ import java.util.TreeSet;
  *     {@link #addCredentialBuilder(CredentialBuilder)} respectively), a Pedersen commitment to randomness
  *     (see the {@link IdemixCredential.Commitment} and {@link CredentialBuilder.Commitment} classes) is made
  *     for each of the numbers that are to be kept secret (the first step in the Schnorr Sigma-protocol).</li>
+ *     <li>Optionally, the randomizers and commitments can be computed ahead of time using {@link #prepare()},
+ *     before the nonce is known (see {@link #setNonce(BigInteger)}).</li>
  *     <li>When building the proofs using {@link #build()}, the challenge for the second step in the Schnorr
  *     Sigma-protocol is calculated, as the hash over the context, the commitments and the elements of which
  *     knowledge is being proved, and the nonce. Using this the responses (the third step of the Sigma-protocol) are
@@ -76,6 +78,9 @@ public class ProofListBuilder {
 
 	private Map<String, BigInteger> fixed;
 
+	/** Commitments computed ahead of time by {@link #prepare()}, not yet used in a proof */
+	private Commitment prepared;
+
 	public class Commitment extends Commitments {
 		List<Commitments> coms = new ArrayList<>();
 
@@ -113,13 +118,16 @@ public class ProofListBuilder {
 		// otherwise we cannot perform the range proof showing that it is not too large.
 		fixed = new HashMap<String, BigInteger>();
 		fixed.put(ProofBuilder.USER_SECRET_KEY,
-		        new BigInteger(new IdemixSystemParameters1024().get_l_m_commit(), new SecureRandom()));
+		        new BigInteger(new IdemixSystemParameters1024().get_l_m_commit(), RandomnessProvider.random()));
 	}
 
 	/**
 	 * Add a generic proofbuilder
 	 */
 	public ProofListBuilder addProof(ProofBuilder builder) {
+		// Proofs added after preparing would not be covered by the prepared commitments
+		prepared = null;
+
 		// FIXME: the api-server expects proofU's to be at the end, proofD's at the beginning
 		if(builder instanceof ProofDBuilder) {
 			builders.add(0, builder);
@@ -155,7 +163,7 @@ public class ProofListBuilder {
 			BigInteger sk = getSecretKey();
 			if (sk == null) {
 				// See comment in constructor
-				sk = new BigInteger(new IdemixSystemParameters1024().get_l_m(), new SecureRandom());
+				sk = new BigInteger(new IdemixSystemParameters1024().get_l_m(), RandomnessProvider.random());
 			}
 			builder.setSecret(sk);
 		}
@@ -165,6 +173,7 @@ public class ProofListBuilder {
 	}
 
 	public void generateRandomizers() {
+		prepared = null;
 		for(ProofBuilder builder : builders) {
 			builder.generateRandomizers(fixed);
 		}
@@ -186,18 +195,51 @@ public class ProofListBuilder {
 		if (builders.size() == 0) { // Nothing to do? Probably a mistake
 			throw new RuntimeException("No proofs have been added, can't build an empty proof collection");
 		}
+		if (nonce == null) {
+			throw new RuntimeException("No nonce has been set, can't build the proof collection");
+		}
+
+		Commitment com = prepared;
+		prepared = null;
+		if (com == null) {
+			generateRandomizers();
+			com = calculateCommitments();
+		}
 
-		generateRandomizers();
-		Commitment com = calculateCommitments();
 		BigInteger challenge = com.calculateChallenge(context, nonce, isSig);
 		return createProofList(challenge);
 	}
 
+	/**
+	 * Generates the randomizers and calculates the commitments of all proofs
+	 * ahead of time, e.g. when a session is started, as these depend neither on
+	 * the context nor on the nonce. Once the nonce is known, {@link #build()}
+	 * then only needs to compute the challenge and the responses. The prepared
+	 * commitments are used for one proof only; proofs must be added before
+	 * calling this.
+	 * @throws RuntimeException if no proofs have been added yet
+	 */
+	public ProofListBuilder prepare() {
+		if (builders.size() == 0) {
+			throw new RuntimeException("No proofs have been added, can't prepare an empty proof collection");
+		}
+
+		generateRandomizers();
+		prepared = calculateCommitments();
+		return this;
+	}
+
+	public boolean isPrepared() {
+		return prepared != null;
+	}
+
 	public ProofList createProofList(BigInteger challenge) {
 		return createProofList(challenge, null);
 	}
 
 	public ProofList createProofList(BigInteger challenge, ProofP proofp) {
+		// The randomizers are used now, so they must not be used again by build()
+		prepared = null;
 		ProofList proofs = new ProofList(isSig);
 
 		for(ProofBuilder builder : builders) {
@@ -224,6 +266,14 @@ public class ProofListBuilder {
 		return nonce;
 	}
 
+	/**
+	 * Sets the nonce, for when the builder was created (and possibly prepared)
+	 * before the nonce was known.
+	 */
+	public void setNonce(BigInteger nonce) {
+		this.nonce = nonce;
+	}
+
 	public void setSecretKey(BigInteger secret) {
 		this.secret = secret;
 	}
@@ -111,7 +111,7 @@ public class ProofP implements Proof {
 		// Reconstruct U_commit
 		// U_commit = P^{-c} * R_0^{s_response}
 		BigInteger Uc = P.modPow(this.c.negate(), n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(this.s_response, n);
+		BigInteger R0s = pk.modPowR(0, this.s_response);
 
 		return Uc.multiply(R0s).mod(n);
 	}
@@ -41,6 +41,7 @@ import de.henku.jpaillier.PublicKey;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
+import org.irmacard.credentials.idemix.util.RandomnessProvider;
 
 public class ProofPBuilder extends ProofBuilder {
 	private BigInteger s;
@@ -82,12 +83,13 @@ public class ProofPBuilder extends ProofBuilder {
 		this.s = s;
 		this.pk = pk;
 
-		this.P = pk.getGeneratorR(0).modPow(s, pk.getModulus());
+		this.P = pk.modPowR(0, s);
 	}
 
 	@Override
 	public ProofBuilder generateRandomizers(Map<String, BigInteger> fixed) {
-		SecureRandom rnd = new SecureRandom();
+		discardPrepared();
+		SecureRandom rnd = RandomnessProvider.random();
 		rand = new ProofPRandomizers();
 
 		IdemixSystemParameters params = pk.getSystemParameters();
@@ -106,7 +108,7 @@ public class ProofPBuilder extends ProofBuilder {
 		ProofPCommitments coms = new ProofPCommitments();
 
 		coms.P = P;
-		coms.Pcommit = pk.getGeneratorR(0).modPow(rand.s_randomizer, pk.getModulus());
+		coms.Pcommit = pk.modPowR(0, rand.s_randomizer);
 
 		return coms;
 	}
@@ -117,6 +119,7 @@ public class ProofPBuilder extends ProofBuilder {
 	}
 
 	public ProofP createProof(BigInteger challenge, PublicKey publicKey) {
+		discardPrepared();
 		BigInteger s_response;
 
 		if (publicKey == null) {
@@ -15,6 +15,7 @@ import org.irmacard.credentials.idemix.proofs.ProofPBuilder.ProofPCommitments;
 import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.KeyException;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
+import org.irmacard.credentials.idemix.util.RandomnessProvider;
 
 public class ProofPListBuilder {
 	List<IdemixPublicKey> pks;
@@ -34,7 +35,7 @@ public class ProofPListBuilder {
 	}
 
 	public ProofPListBuilder generateRandomizers() {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = RandomnessProvider.random();
 
 		// FIXME: size of randomness for key could be different for different parameters!
 		Map<String, BigInteger> fixed = new HashMap<>();
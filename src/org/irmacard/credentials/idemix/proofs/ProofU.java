@@ -108,8 +108,8 @@ public class ProofU implements Proof {
 		// Reconstruct U_commit
 		// U_commit = U^{-c} * S^{v_prime_response} * R_0^{s_response}
 		BigInteger Uc = U.modPow(this.c.negate(), n);
-		BigInteger Sv = pk.getGeneratorS().modPow(this.v_prime_response, n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(this.s_response, n);
+		BigInteger Sv = pk.modPowS(this.v_prime_response);
+		BigInteger R0s = pk.modPowR(0, this.s_response);
 
 		return Uc.multiply(Sv).multiply(R0s).mod(n);
 	}
@@ -87,6 +87,7 @@ public class ProofUBuilder extends ProofBuilder {
 
 	@Override
 	public ProofBuilder generateRandomizers(Map<String, BigInteger> fixed) {
+		discardPrepared();
 		IdemixSystemParameters params = cb.getPublicKey().getSystemParameters();
 		rand.v_prime_commit = Crypto.randomUnsignedInteger(params.get_l_v_prime_commit());
 
@@ -108,8 +109,8 @@ public class ProofUBuilder extends ProofBuilder {
 		coms.U = cb.commitmentToSecret();
 
 		// U_commit = S^{v_prime_commit} * R_0^{s_commit}
-		BigInteger Sv = pk.getGeneratorS().modPow(rand.v_prime_commit, n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(rand.s_commit, n);
+		BigInteger Sv = pk.modPowS(rand.v_prime_commit);
+		BigInteger R0s = pk.modPowR(0, rand.s_commit);
 		coms.U_commit = Sv.multiply(R0s).mod(n);
 
 		return coms;
@@ -117,6 +118,7 @@ public class ProofUBuilder extends ProofBuilder {
 
 	@Override
 	public ProofU createProof(BigInteger challenge) {
+		discardPrepared();
 		BigInteger s_response = rand.s_commit.add(challenge.multiply(cb.getSecret()));
 		BigInteger v_prime_response = rand.v_prime_commit.add(challenge.multiply(cb.getVPrime()));
 
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of precomputed values, kept filled by low-priority daemon
+ * threads, so that expensive computations that do not depend on the request
+ * can be moved out of the request path. When the pool is empty a value is
+ * generated on the spot, which is counted as a miss. Each value is handed out
+ * at most once.
+ * <p>
+ * Alternatively the pool is filled by tasks on an executor that is shared
+ * with other pools. Such a task only runs while the pool is not full, so that
+ * the pool holds no thread while it is idle.
+ *
+ * @param <T> the type of the values
+ */
+public abstract class BackgroundPool<T> {
+	private final BlockingQueue<T> values;
+	private final Thread[] workers;
+	private final Executor executor;
+	private final int parallelism;
+	private final AtomicInteger filling = new AtomicInteger();
+	private volatile boolean stopped = false;
+	// Incremented by clear(), so that values generated before are discarded; guarded by the lock on values
+	private int generation = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param name		prefix of the names of the background threads
+	 * @param capacity	the maximum number of values kept in the pool
+	 * @param threads	the number of background threads filling the pool
+	 */
+	protected BackgroundPool(String name, int capacity, int threads) {
+		if (capacity < 1 || threads < 1) {
+			throw new IllegalArgumentException("Capacity and number of threads must be positive");
+		}
+
+		this.values = new ArrayBlockingQueue<>(capacity);
+		this.executor = null;
+		this.parallelism = threads;
+
+		workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					fill();
+				}
+			}, name + "-" + i);
+			workers[i].setDaemon(true);
+			workers[i].setPriority(Thread.MIN_PRIORITY);
+		}
+	}
+
+	/**
+	 * @param capacity		the maximum number of values kept in the pool
+	 * @param parallelism	the maximum number of tasks filling the pool at the same time
+	 * @param executor		the executor on which the pool is filled
+	 */
+	protected BackgroundPool(int capacity, int parallelism, Executor executor) {
+		if (capacity < 1 || parallelism < 1) {
+			throw new IllegalArgumentException("Capacity and parallelism must be positive");
+		}
+
+		this.values = new ArrayBlockingQueue<>(capacity);
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.workers = new Thread[0];
+	}
+
+	/**
+	 * Computes a new value for the pool.
+	 */
+	protected abstract T generate();
+
+	/**
+	 * Starts the background threads. Subclasses call this once they are
+	 * fully constructed.
+	 */
+	protected void start() {
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		scheduleFill();
+	}
+
+	/**
+	 * Takes a value from the pool, or generates one if the pool is empty.
+	 */
+	public T take() {
+		T value = values.poll();
+		if (value != null && workers.length > 0) {
+			// Wake up the background threads waiting for room in the pool
+			synchronized (values) {
+				values.notifyAll();
+			}
+		}
+		scheduleFill();
+		if (value != null) {
+			hits.incrementAndGet();
+			return value;
+		}
+
+		misses.incrementAndGet();
+		return generate();
+	}
+
+	/**
+	 * Stops the background threads or tasks. Values can still be taken from the
+	 * pool afterwards, but it will no longer be refilled.
+	 */
+	public void stop() {
+		stopped = true;
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * Discards all values in the pool, as well as the values that are being
+	 * generated at the moment.
+	 */
+	protected void clear() {
+		synchronized (values) {
+			generation++;
+			values.clear();
+			values.notifyAll();
+		}
+	}
+
+	private int getGeneration() {
+		synchronized (values) {
+			return generation;
+		}
+	}
+
+	/**
+	 * When filled by an executor, submits tasks to fill the pool until as many are
+	 * running as allowed, unless the pool is stopped or full.
+	 */
+	private void scheduleFill() {
+		if (executor == null) {
+			return;
+		}
+
+		while (!stopped && values.remainingCapacity() > 0) {
+			int running = filling.get();
+			if (running >= parallelism) {
+				return;
+			}
+			if (!filling.compareAndSet(running, running + 1)) {
+				continue;
+			}
+
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						refill();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// The executor is saturated; try again at the next take()
+				filling.decrementAndGet();
+				return;
+			}
+		}
+	}
+
+	private void refill() {
+		try {
+			while (!stopped && values.remainingCapacity() > 0) {
+				int current = getGeneration();
+				T value = generate();
+				synchronized (values) {
+					// Checked under the lock, so that no value is added after stop() and clear()
+					if (stopped || current != generation || !values.offer(value)) {
+						break;
+					}
+					values.notifyAll();
+				}
+			}
+		} finally {
+			filling.decrementAndGet();
+		}
+
+		// A value may have been taken after we last checked
+		scheduleFill();
+	}
+
+	private void fill() {
+		try {
+			while (!stopped) {
+				int current = getGeneration();
+				T value = generate();
+				synchronized (values) {
+					// Checked under the lock, as in refill(), so that no value is added after stop() and clear(),
+					// even if the interrupt from stop() was lost while generating
+					while (!stopped && current == generation && !values.offer(value)) {
+						values.wait();
+					}
+					values.notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			// We were stopped
+		}
+	}
+
+	/**
+	 * Waits until the pool holds at least the given number of values.
+	 *
+	 * @param depth		the number of values to wait for
+	 * @param timeout	the maximum time to wait, in milliseconds
+	 * @return			true if the pool holds at least depth values, false if the timeout expired first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitDepth(int depth, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (values) {
+			while (values.size() < depth) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				values.wait(remaining);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the number of values currently in the pool
+	 */
+	public int getDepth() {
+		return values.size();
+	}
+
+	public int getCapacity() {
+		return values.size() + values.remainingCapacity();
+	}
+
+	/**
+	 * @return the number of values taken from the pool
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of values that had to be generated because the pool was empty
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+
+/**
+ * Modular multiplication using Barrett reduction. For a fixed modulus this is
+ * considerably cheaper than BigInteger.mod(), which performs a full long
+ * division for every reduction. It is used by the exponentiation routines that
+ * cannot use BigInteger.modPow() directly, such as fixed-base tables and
+ * multi-exponentiations.
+ */
+public class BarrettReducer {
+	private final BigInteger modulus;
+	private final BigInteger mu;
+	private final int k;
+
+	/**
+	 * @param modulus	a positive modulus
+	 */
+	public BarrettReducer(BigInteger modulus) {
+		if (modulus.signum() <= 0) {
+			throw new IllegalArgumentException("Modulus must be positive");
+		}
+
+		this.modulus = modulus;
+		this.k = modulus.bitLength();
+		this.mu = BigInteger.ONE.shiftLeft(2 * k).divide(modulus);
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	/**
+	 * Reduces x modulo the modulus. The input must satisfy 0 <= x < modulus^2;
+	 * values outside of this range are reduced using BigInteger.mod().
+	 */
+	public BigInteger reduce(BigInteger x) {
+		if (x.signum() < 0 || x.bitLength() > 2 * k) {
+			return x.mod(modulus);
+		}
+
+		// q = floor(floor(x / 2^{k-1}) * mu / 2^{k+1}) is at most 2 below floor(x / modulus)
+		BigInteger q = x.shiftRight(k - 1).multiply(mu).shiftRight(k + 1);
+		BigInteger r = x.subtract(q.multiply(modulus));
+		while (r.compareTo(modulus) >= 0) {
+			r = r.subtract(modulus);
+		}
+
+		return r;
+	}
+
+	/**
+	 * Returns a * b (mod modulus) for 0 <= a, b < modulus.
+	 */
+	public BigInteger multiply(BigInteger a, BigInteger b) {
+		return reduce(a.multiply(b));
+	}
+
+	/**
+	 * Returns a^2 (mod modulus) for 0 <= a < modulus.
+	 */
+	public BigInteger square(BigInteger a) {
+		return reduce(a.multiply(a));
+	}
+}
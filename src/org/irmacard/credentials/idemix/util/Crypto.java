@@ -57,7 +57,7 @@ public class Crypto {
 	 * @return				a random signed integer in the given range
 	 */
 	public static BigInteger randomSignedInteger(int bitlength) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = RandomnessProvider.random();
 
 		BigInteger maximum = TWO.pow(bitlength).subtract(BigInteger.ONE);
 		BigInteger unsigned_maximum = maximum.multiply(TWO);
@@ -70,7 +70,7 @@ public class Crypto {
 	}
 
 	public static BigInteger randomUnsignedInteger(int bitlength) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = RandomnessProvider.random();
 		return new BigInteger(bitlength, rnd);
 	}
 
@@ -82,7 +82,7 @@ public class Crypto {
 	 * @return An elemement in Z_{modulus}^*
 	 */
 	public static BigInteger randomElementMultiplicativeGroup(BigInteger modulus) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = RandomnessProvider.random();
 		BigInteger result = BigInteger.ZERO;
 
 		while(result.compareTo(BigInteger.ZERO) <= 0 ||
@@ -192,20 +192,73 @@ public class Crypto {
 	 * @return A number in the given range that is probably prime
 	 */
 	public static BigInteger probablyPrimeInBitRange(int start_in_bits, int length_in_bits) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = RandomnessProvider.random();
 		BigInteger start = TWO.pow(start_in_bits);
 		BigInteger end = start.add(TWO.pow(length_in_bits));
-		BigInteger prime = end;
+		BigInteger prime = null;
 
 		// Ensure that the generated prime is never too big
-		while (prime.compareTo(end) >= 0) {
+		while (prime == null) {
 			BigInteger offset = new BigInteger(length_in_bits, rnd);
-			prime = start.add(offset).nextProbablePrime();
+			prime = nextProbablePrime(start.add(offset), end);
 		}
 
 		return prime;
 	}
 
+	/**
+	 * Returns the smallest number larger than from that is probably prime, as
+	 * BigInteger.nextProbablePrime() does, or null if that number is not
+	 * smaller than bound. The probability that the number is not prime is no
+	 * more than 2^(-100).
+	 *
+	 * @param from		the number to start searching from
+	 * @param bound		exclusive upper bound, or null
+	 * @return			the next probable prime, or null
+	 */
+	public static BigInteger nextProbablePrime(BigInteger from, BigInteger bound) {
+		BigInteger prime = from.nextProbablePrime();
+		if (bound != null && prime.compareTo(bound) >= 0) {
+			return null;
+		}
+
+		return prime;
+	}
+
+	/**
+	 * Computes the Jacobi symbol (a|n) of a modulo the odd positive number n.
+	 *
+	 * @param a		the number
+	 * @param n		the odd modulus
+	 * @return		1, -1, or 0 if a and n are not coprime
+	 */
+	public static int jacobiSymbol(BigInteger a, BigInteger n) {
+		if (n.signum() <= 0 || !n.testBit(0)) {
+			throw new IllegalArgumentException("Modulus must be odd and positive");
+		}
+
+		a = a.mod(n);
+		int result = 1;
+		while (a.signum() != 0) {
+			int twos = a.getLowestSetBit();
+			a = a.shiftRight(twos);
+			// (2|n) = -1 iff n = 3, 5 (mod 8)
+			int n8 = n.intValue() & 7;
+			if ((twos & 1) == 1 && (n8 == 3 || n8 == 5)) {
+				result = -result;
+			}
+			// Quadratic reciprocity: swap, with a sign change iff a = n = 3 (mod 4)
+			if ((a.intValue() & 3) == 3 && (n.intValue() & 3) == 3) {
+				result = -result;
+			}
+			BigInteger t = a;
+			a = n.mod(t);
+			n = t;
+		}
+
+		return n.equals(BigInteger.ONE) ? result : 0;
+	}
+
 	/**
 	 * A representation of the given exponents in terms of the given bases. For
 	 * given bases bases[1],...,bases[k]; exponents exps[1],...,exps[k] and
@@ -224,15 +277,32 @@ public class Crypto {
 			throw new RuntimeException("Not enough bases to represent exponents");
 		}
 
-		BigInteger r = BigInteger.ONE;
-		BigInteger tmp;
-		for (int i = 0; i < exps.size(); i++) {
-			// tmp = bases_i ^ exps_i (mod modulus)
-			tmp = bases.get(i).modPow(exps.get(i), modulus);
+		return multiExponentiate(bases, exps, modulus);
+	}
 
-			// r = r * tmp (mod modulus)
-			r = r.multiply(tmp).mod(modulus);
-		}
-		return r;
+	/**
+	 * Computes bases[0]^{exps[0]} * ... * bases[k-1]^{exps[k-1]} (mod modulus)
+	 * as a simultaneous multi-exponentiation, sharing the squarings among all
+	 * bases. Depending on the number and lengths of the exponents this uses
+	 * separate exponentiations, Straus' algorithm or Pippenger's algorithm, or a
+	 * combination (see {@link MultiExponentiation}). Exponents may be negative if
+	 * the corresponding base is invertible.
+	 *
+	 * @param bases		the bases
+	 * @param exps		the exponents, at most as many as there are bases
+	 * @param modulus	the modulus
+	 * @return			the product of the powers
+	 */
+	public static BigInteger multiExponentiate(List<BigInteger> bases,
+			List<BigInteger> exps, BigInteger modulus) {
+		return MultiExponentiation.multiExponentiate(bases, exps, modulus);
+	}
+
+	/**
+	 * @see #multiExponentiate(List, List, BigInteger)
+	 */
+	public static BigInteger multiExponentiate(BigInteger[] bases,
+			BigInteger[] exps, BigInteger modulus) {
+		return multiExponentiate(Arrays.asList(bases), Arrays.asList(exps), modulus);
 	}
 }
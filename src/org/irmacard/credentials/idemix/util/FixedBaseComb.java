@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+
+/**
+ * Precomputed table for exponentiating a fixed base, using the Lim-Lee comb
+ * method. The exponent is cut into h rows of a bits, and each row into v blocks
+ * of b bits; the table contains for each block j and each h-bit pattern u the
+ * product of the bases base^{2^{i*a + j*b}} selected by u. An exponentiation
+ * then takes only b - 1 squarings and at most v*b multiplications, instead of
+ * one squaring per exponent bit as in BigInteger.modPow().
+ *
+ * Exponents longer than the table supports are handled by BigInteger.modPow().
+ * Instances are immutable and can be shared between threads.
+ */
+public class FixedBaseComb {
+	public static final int DEFAULT_ROWS = 8;
+	public static final int DEFAULT_BLOCKS = 2;
+
+	private final BigInteger base;
+	private final BigInteger modulus;
+	private final BarrettReducer reducer;
+
+	private final int maxBits;
+	private final int h;
+	private final int v;
+	private final int a;
+	private final int b;
+
+	// table[j][u] = prod_{i : bit i of u is set} base^{2^{i*a + j*b}}
+	private final BigInteger[][] table;
+
+	public FixedBaseComb(BigInteger base, BigInteger modulus, int maxBits) {
+		this(base, modulus, maxBits, DEFAULT_ROWS, DEFAULT_BLOCKS);
+	}
+
+	/**
+	 * Builds the table.
+	 *
+	 * @param base		the fixed base
+	 * @param modulus	the modulus
+	 * @param maxBits	the maximum bitlength of the exponents that the table supports
+	 * @param rows		the number of rows h; the table holds v * (2^h - 1) elements
+	 * @param blocks	the number of blocks v per row
+	 */
+	public FixedBaseComb(BigInteger base, BigInteger modulus, int maxBits, int rows, int blocks) {
+		this(base, modulus, maxBits, rows, blocks, null);
+	}
+
+	private FixedBaseComb(BigInteger base, BigInteger modulus, int maxBits, int rows, int blocks,
+			BigInteger[][] precomputed) {
+		if (maxBits <= 0 || rows <= 0 || rows > 16 || blocks <= 0) {
+			throw new IllegalArgumentException("Invalid comb parameters");
+		}
+
+		this.modulus = modulus;
+		this.reducer = new BarrettReducer(modulus);
+		this.base = base.mod(modulus);
+
+		this.maxBits = maxBits;
+		this.h = rows;
+		this.a = (maxBits + h - 1) / h;
+		this.v = Math.min(blocks, a);
+		this.b = (a + v - 1) / v;
+
+		if (precomputed != null) {
+			if (precomputed.length != v) {
+				throw new IllegalArgumentException("Table does not match the comb parameters");
+			}
+			table = new BigInteger[v][];
+			for (int j = 0; j < v; j++) {
+				if (precomputed[j].length != 1 << h) {
+					throw new IllegalArgumentException("Table does not match the comb parameters");
+				}
+				table[j] = precomputed[j].clone();
+				for (BigInteger element : table[j]) {
+					if (element == null || element.signum() < 0 || element.compareTo(modulus) >= 0) {
+						throw new IllegalArgumentException("Table element out of range");
+					}
+				}
+			}
+			checkTable();
+			return;
+		}
+
+		table = new BigInteger[v][1 << h];
+
+		// g_i = base^{2^{i*a}}
+		BigInteger[] g = new BigInteger[h];
+		g[0] = this.base;
+		for (int i = 1; i < h; i++) {
+			g[i] = squareRepeatedly(g[i - 1], a);
+		}
+
+		table[0][0] = BigInteger.ONE;
+		for (int u = 1; u < (1 << h); u++) {
+			int lowest = Integer.numberOfTrailingZeros(u);
+			table[0][u] = reducer.multiply(table[0][u & (u - 1)], g[lowest]);
+		}
+
+		for (int j = 1; j < v; j++) {
+			table[j][0] = BigInteger.ONE;
+			for (int u = 1; u < (1 << h); u++) {
+				table[j][u] = squareRepeatedly(table[j - 1][u], b);
+			}
+		}
+	}
+
+	/**
+	 * Recreates a comb from a table that was previously built for the same
+	 * parameters, e.g. one that was stored using {@link #getTableElement(int, int)},
+	 * without performing any exponentiations.
+	 *
+	 * @param table	the elements table[j][u] for 0 <= j < blocks and 0 <= u < 2^rows
+	 * @throws IllegalArgumentException if the dimensions of the table do not match, or if
+	 *         a spot-check shows that it was not built for this base
+	 */
+	public static FixedBaseComb fromTable(BigInteger base, BigInteger modulus, int maxBits, int rows, int blocks,
+			BigInteger[][] table) {
+		return new FixedBaseComb(base, modulus, maxBits, rows, blocks, table);
+	}
+
+	/**
+	 * Spot-checks a table that was not built here: in each block j the element
+	 * for u = 0 must be 1, and the one for u = 1 must be base^{2^{j*b}}. This
+	 * costs (v - 1) * b squarings, a fraction of one exponentiation.
+	 *
+	 * @throws IllegalArgumentException if the table is not for this base
+	 */
+	private void checkTable() {
+		BigInteger expected = base;
+		for (int j = 0; j < v; j++) {
+			if (j > 0) {
+				expected = squareRepeatedly(expected, b);
+			}
+			if (!table[j][0].equals(BigInteger.ONE) || !table[j][1].equals(expected)) {
+				throw new IllegalArgumentException("Table does not match the base");
+			}
+		}
+	}
+
+	private BigInteger squareRepeatedly(BigInteger x, int times) {
+		for (int i = 0; i < times; i++) {
+			x = reducer.square(x);
+		}
+		return x;
+	}
+
+	/**
+	 * Returns base^{exponent} (mod modulus). Negative exponents are supported
+	 * if the base is invertible.
+	 */
+	public BigInteger pow(BigInteger exponent) {
+		if (exponent.signum() < 0) {
+			return pow(exponent.negate()).modInverse(modulus);
+		}
+
+		if (exponent.bitLength() > maxBits) {
+			return base.modPow(exponent, modulus);
+		}
+
+		BigInteger result = BigInteger.ONE;
+		for (int k = b - 1; k >= 0; k--) {
+			result = reducer.square(result);
+
+			for (int j = v - 1; j >= 0; j--) {
+				int offset = j * b + k;
+				if (offset >= a) {
+					continue;
+				}
+
+				int u = 0;
+				for (int i = h - 1; i >= 0; i--) {
+					u <<= 1;
+					if (exponent.testBit(i * a + offset)) {
+						u |= 1;
+					}
+				}
+
+				if (u != 0) {
+					result = reducer.multiply(result, table[j][u]);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	public BigInteger getBase() {
+		return base;
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	/**
+	 * The maximum bitlength of exponents that are handled using the table.
+	 */
+	public int getMaxBits() {
+		return maxBits;
+	}
+
+	/**
+	 * The number of rows h.
+	 */
+	public int getRows() {
+		return h;
+	}
+
+	/**
+	 * The number of blocks v per row.
+	 */
+	public int getBlocks() {
+		return v;
+	}
+
+	/**
+	 * Returns the table element for block j and bit pattern u, being the product
+	 * of base^{2^{i*a + j*b}} over the bits i that are set in u.
+	 */
+	public BigInteger getTableElement(int j, int u) {
+		return table[j][u];
+	}
+
+	/**
+	 * The number of group elements stored in the table.
+	 */
+	public int size() {
+		return v * ((1 << h) - 1);
+	}
+}
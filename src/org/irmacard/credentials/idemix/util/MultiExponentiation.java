@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Algorithms for computing products of powers bases[0]^{exps[0]} * ... *
+ * bases[k-1]^{exps[k-1]} (mod modulus), as used throughout the protocols when
+ * computing representations in terms of the generators of the public key.
+ * Use {@link #multiExponentiate(List, List, BigInteger)} (or the equivalent
+ * {@link Crypto#multiExponentiate(List, List, BigInteger)}), which picks the
+ * cheapest algorithm for its input.
+ */
+public class MultiExponentiation {
+	/**
+	 * Rough cost of a Barrett multiplication (as used by the algorithms here)
+	 * compared to one modular multiplication inside BigInteger.modPow(), which
+	 * uses Montgomery multiplication with intrinsics.
+	 */
+	private static final double BARRETT_COST = 2.6;
+
+	/**
+	 * Rough cost per exponent bit of BigInteger.modPow(), in modular multiplications
+	 * (one squaring and a fraction of a multiplication per bit).
+	 */
+	private static final double MODPOW_COST_PER_BIT = 1.2;
+
+	/**
+	 * Pippenger's algorithm turns out to be a bit faster than its multiplication
+	 * count suggests compared to Straus' algorithm, whose large per-base tables
+	 * behave worse in the cache (measured using MultiExponentiationBenchmark).
+	 */
+	private static final double PIPPENGER_CORRECTION = 0.8;
+
+	private static final int SEPARATE = 0;
+	private static final int STRAUS = 1;
+	private static final int PIPPENGER = 2;
+
+	/**
+	 * Computes the product of powers, using the cheapest combination of the
+	 * algorithms in this class according to their estimated costs. Exponents
+	 * that are much longer than the others (such as those of S in the Idemix
+	 * protocols) are best handled separately, so the longest exponents may be
+	 * split off and computed using BigInteger.modPow().
+	 */
+	public static BigInteger multiExponentiate(List<BigInteger> bases, List<BigInteger> exps, BigInteger modulus) {
+		final int k = exps.size();
+		final int[] bits = new int[k];
+		Integer[] order = new Integer[k];
+		for (int i = 0; i < k; i++) {
+			bits[i] = exps.get(i).bitLength();
+			order[i] = i;
+		}
+
+		// Sort by decreasing exponent length
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return bits[b] - bits[a];
+			}
+		});
+
+		// Suffix sums of the exponent lengths in this order
+		long[] suffix = new long[k + 1];
+		for (int i = k - 1; i >= 0; i--) {
+			suffix[i] = suffix[i + 1] + bits[order[i]];
+		}
+
+		// Consider splitting off the s longest exponents, for all s
+		int bestSplit = k;
+		int bestAlgorithm = SEPARATE;
+		double bestCost = MODPOW_COST_PER_BIT * suffix[0] + k;
+		for (int s = 0; s < k; s++) {
+			double separate = MODPOW_COST_PER_BIT * (suffix[0] - suffix[s]) + s;
+			int count = k - s;
+			int maxBits = bits[order[s]];
+
+			double straus = separate + strausCost(count, suffix[s], maxBits);
+			if (straus < bestCost) {
+				bestCost = straus;
+				bestSplit = s;
+				bestAlgorithm = STRAUS;
+			}
+
+			double pippenger = separate + pippengerCost(count, maxBits);
+			if (pippenger < bestCost) {
+				bestCost = pippenger;
+				bestSplit = s;
+				bestAlgorithm = PIPPENGER;
+			}
+		}
+
+		if (bestSplit == 0 || bestAlgorithm == SEPARATE) {
+			return compute(bestAlgorithm, bases, exps, modulus);
+		}
+
+		List<BigInteger> longBases = new ArrayList<>(bestSplit);
+		List<BigInteger> longExps = new ArrayList<>(bestSplit);
+		List<BigInteger> restBases = new ArrayList<>(k - bestSplit);
+		List<BigInteger> restExps = new ArrayList<>(k - bestSplit);
+		for (int i = 0; i < k; i++) {
+			int idx = order[i];
+			if (i < bestSplit) {
+				longBases.add(bases.get(idx));
+				longExps.add(exps.get(idx));
+			} else {
+				restBases.add(bases.get(idx));
+				restExps.add(exps.get(idx));
+			}
+		}
+
+		return separate(longBases, longExps, modulus)
+				.multiply(compute(bestAlgorithm, restBases, restExps, modulus))
+				.mod(modulus);
+	}
+
+	private static BigInteger compute(int algorithm, List<BigInteger> bases, List<BigInteger> exps, BigInteger modulus) {
+		switch (algorithm) {
+			case STRAUS:
+				return straus(bases, exps, modulus);
+			case PIPPENGER:
+				return pippenger(bases, exps, modulus);
+			default:
+				return separate(bases, exps, modulus);
+		}
+	}
+
+	/**
+	 * Computes the product of powers by exponentiating each base separately
+	 * with BigInteger.modPow(). This is the best choice for few bases.
+	 */
+	public static BigInteger separate(List<BigInteger> bases, List<BigInteger> exps, BigInteger modulus) {
+		BigInteger r = BigInteger.ONE;
+		for (int i = 0; i < exps.size(); i++) {
+			r = r.multiply(bases.get(i).modPow(exps.get(i), modulus)).mod(modulus);
+		}
+		return r;
+	}
+
+	/**
+	 * Computes the product of powers using Straus' algorithm (also known as
+	 * Shamir's trick), interleaving sliding windows over all exponents so that
+	 * the squarings are shared among all bases.
+	 */
+	public static BigInteger straus(List<BigInteger> bases, List<BigInteger> exps, BigInteger modulus) {
+		long totalBits = 0;
+		int maxBits = 0;
+		for (BigInteger exp : exps) {
+			totalBits += exp.bitLength();
+			maxBits = Math.max(maxBits, exp.bitLength());
+		}
+
+		return straus(bases, exps, modulus, strausWindow(exps.size(), totalBits, maxBits));
+	}
+
+	static BigInteger straus(List<BigInteger> bases, List<BigInteger> exps, BigInteger modulus, int window) {
+		BarrettReducer reducer = new BarrettReducer(modulus);
+		int k = exps.size();
+
+		// For each base, the odd powers base^1, base^3, ..., base^{2^window - 1}
+		BigInteger[][] powers = new BigInteger[k][];
+
+		// For each exponent, the window value (if any) ending at each bit position
+		int[][] digits = new int[k][];
+
+		int maxBits = 0;
+		for (int i = 0; i < k; i++) {
+			BigInteger base = bases.get(i);
+			BigInteger exp = exps.get(i);
+			if (exp.signum() < 0) {
+				base = base.modInverse(modulus);
+				exp = exp.negate();
+			}
+
+			maxBits = Math.max(maxBits, exp.bitLength());
+			digits[i] = slidingWindowDigits(exp, window);
+			powers[i] = oddPowers(reducer, base.mod(modulus), largestDigit(digits[i]));
+		}
+
+		BigInteger r = BigInteger.ONE;
+		for (int bit = maxBits - 1; bit >= 0; bit--) {
+			r = reducer.square(r);
+			for (int i = 0; i < k; i++) {
+				if (bit < digits[i].length && digits[i][bit] != 0) {
+					r = reducer.multiply(r, powers[i][digits[i][bit] >> 1]);
+				}
+			}
+		}
+
+		return r.mod(modulus);
+	}
+
+	/**
+	 * Computes the product of powers using Pippenger's bucket method. For each
+	 * window of c exponent bits, every base is multiplied into the bucket
+	 * indexed by its digit, after which the buckets are combined using about
+	 * 2^{c+1} multiplications. There is no per-base precomputation, so this
+	 * outperforms Straus' algorithm when there are many bases.
+	 */
+	public static BigInteger pippenger(List<BigInteger> bases, List<BigInteger> exps, BigInteger modulus) {
+		BarrettReducer reducer = new BarrettReducer(modulus);
+		int k = exps.size();
+
+		BigInteger[] bs = new BigInteger[k];
+		BigInteger[] es = new BigInteger[k];
+		int maxBits = 0;
+		for (int i = 0; i < k; i++) {
+			bs[i] = bases.get(i);
+			es[i] = exps.get(i);
+			if (es[i].signum() < 0) {
+				bs[i] = bs[i].modInverse(modulus);
+				es[i] = es[i].negate();
+			}
+			bs[i] = bs[i].mod(modulus);
+			maxBits = Math.max(maxBits, es[i].bitLength());
+		}
+
+		int c = pippengerWindow(k, maxBits);
+		int windows = (maxBits + c - 1) / c;
+
+		BigInteger r = BigInteger.ONE;
+		BigInteger[] buckets = new BigInteger[1 << c];
+		for (int w = windows - 1; w >= 0; w--) {
+			if (w != windows - 1) {
+				for (int j = 0; j < c; j++) {
+					r = reducer.square(r);
+				}
+			}
+
+			Arrays.fill(buckets, null);
+			for (int i = 0; i < k; i++) {
+				int digit = 0;
+				for (int j = c - 1; j >= 0; j--) {
+					digit = (digit << 1) | (es[i].testBit(w * c + j) ? 1 : 0);
+				}
+
+				if (digit != 0) {
+					buckets[digit] = buckets[digit] == null ? bs[i] : reducer.multiply(buckets[digit], bs[i]);
+				}
+			}
+
+			// sum_d bucket[d]^d, computed as a product of running products
+			BigInteger running = null;
+			BigInteger total = null;
+			for (int d = buckets.length - 1; d > 0; d--) {
+				if (buckets[d] != null) {
+					running = running == null ? buckets[d] : reducer.multiply(running, buckets[d]);
+				}
+				if (running != null) {
+					total = total == null ? running : reducer.multiply(total, running);
+				}
+			}
+
+			if (total != null) {
+				r = reducer.multiply(r, total);
+			}
+		}
+
+		return r.mod(modulus);
+	}
+
+	/**
+	 * Splits the exponent into windows of at most the given width that start and
+	 * end with a one bit. The result holds at index j the value of the window
+	 * whose least significant bit is bit j of the exponent, or 0.
+	 */
+	private static int[] slidingWindowDigits(BigInteger exp, int window) {
+		int[] digits = new int[exp.bitLength()];
+
+		int bit = exp.bitLength() - 1;
+		while (bit >= 0) {
+			if (!exp.testBit(bit)) {
+				bit--;
+				continue;
+			}
+
+			int low = Math.max(bit - window + 1, 0);
+			while (!exp.testBit(low)) {
+				low++;
+			}
+
+			int digit = 0;
+			for (int j = bit; j >= low; j--) {
+				digit = (digit << 1) | (exp.testBit(j) ? 1 : 0);
+			}
+
+			digits[low] = digit;
+			bit = low - 1;
+		}
+
+		return digits;
+	}
+
+	private static int largestDigit(int[] digits) {
+		int max = 0;
+		for (int digit : digits) {
+			max = Math.max(max, digit);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns base^1, base^3, ..., base^{max} (for odd max), at index (power - 1) / 2.
+	 */
+	private static BigInteger[] oddPowers(BarrettReducer reducer, BigInteger base, int max) {
+		BigInteger[] powers = new BigInteger[(max + 1) / 2];
+		if (powers.length == 0) {
+			return powers;
+		}
+
+		powers[0] = base;
+		if (powers.length > 1) {
+			BigInteger square = reducer.square(base);
+			for (int j = 1; j < powers.length; j++) {
+				powers[j] = reducer.multiply(powers[j - 1], square);
+			}
+		}
+
+		return powers;
+	}
+
+	/**
+	 * The window width that minimizes the number of multiplications of Straus'
+	 * algorithm for the given number of exponents, their total bitlength and the
+	 * maximum bitlength.
+	 */
+	static int strausWindow(int count, long totalBits, int maxBits) {
+		int best = 1;
+		double bestCost = Double.MAX_VALUE;
+		for (int w = 1; w <= 8; w++) {
+			double cost = strausMultiplications(count, totalBits, maxBits, w);
+			if (cost < bestCost) {
+				best = w;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	private static double strausMultiplications(int count, long totalBits, int maxBits, int window) {
+		// Precomputation of the odd powers, plus one multiplication per window
+		return maxBits + count * (1 << (window - 1)) + (double) totalBits / (window + 1);
+	}
+
+	/**
+	 * The bucket width that minimizes the number of multiplications of Pippenger's
+	 * algorithm for the given number of bases and maximum exponent bitlength.
+	 */
+	static int pippengerWindow(int count, int maxBits) {
+		int best = 1;
+		double bestCost = Double.MAX_VALUE;
+		for (int c = 1; c <= 16; c++) {
+			double cost = pippengerMultiplications(count, maxBits, c);
+			if (cost < bestCost) {
+				best = c;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	private static double pippengerMultiplications(int count, int maxBits, int c) {
+		double windows = Math.ceil((double) maxBits / c);
+		return maxBits + windows * (count + (2 << c));
+	}
+
+	/**
+	 * Estimated cost of {@link #straus(List, List, BigInteger)}, in modular multiplications.
+	 */
+	static double strausCost(int count, long totalBits, int maxBits) {
+		int window = strausWindow(count, totalBits, maxBits);
+		return BARRETT_COST * strausMultiplications(count, totalBits, maxBits, window);
+	}
+
+	/**
+	 * Estimated cost of {@link #pippenger(List, List, BigInteger)}, in modular multiplications.
+	 */
+	static double pippengerCost(int count, int maxBits) {
+		int c = pippengerWindow(count, maxBits);
+		return PIPPENGER_CORRECTION * BARRETT_COST * pippengerMultiplications(count, maxBits, c);
+	}
+}
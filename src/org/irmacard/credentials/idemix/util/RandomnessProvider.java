@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Central source of all randomness used by the protocols. By default every
+ * thread gets its own deterministic random bit generator, seeded once from the
+ * system entropy source, so that generating random numbers neither reseeds
+ * nor contends on a shared generator. Another provider can be installed using
+ * {@link #setInstance(RandomnessProvider)}, for example a deterministic one
+ * (see {@link #deterministic(long)}) to make tests reproducible.
+ */
+public abstract class RandomnessProvider {
+	private static volatile RandomnessProvider instance = new ThreadLocalProvider();
+
+	/**
+	 * @return the random number generator to use in the current thread
+	 */
+	public abstract SecureRandom getRandom();
+
+	public static RandomnessProvider getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Installs the given provider, or the default one if it is null.
+	 */
+	public static void setInstance(RandomnessProvider provider) {
+		instance = provider != null ? provider : new ThreadLocalProvider();
+	}
+
+	/**
+	 * @return the random number generator of the installed provider for the current thread
+	 */
+	public static SecureRandom random() {
+		return instance.getRandom();
+	}
+
+	/**
+	 * Returns a uniformly random integer in [0, 2^bits).
+	 */
+	public BigInteger randomBigInteger(int bits) {
+		return new BigInteger(bits, getRandom());
+	}
+
+	/**
+	 * Returns count uniformly random integers in [0, 2^bits), generated from a
+	 * single buffer of random bytes.
+	 */
+	public BigInteger[] randomBigIntegers(int bits, int count) {
+		int length = (bits + 7) / 8;
+		byte[] buffer = new byte[length * count];
+		getRandom().nextBytes(buffer);
+
+		// Mask of the bits of the most significant byte that we use
+		int mask = (1 << (bits - 8 * (length - 1))) - 1;
+
+		BigInteger[] result = new BigInteger[count];
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(buffer, i * length, bytes, 0, length);
+			if (length > 0) {
+				bytes[0] &= mask;
+			}
+			result[i] = new BigInteger(1, bytes);
+		}
+
+		return result;
+	}
+
+	/**
+	 * A provider that returns the same deterministic generator, seeded with the
+	 * given seed, to all threads. Only for testing.
+	 */
+	public static RandomnessProvider deterministic(long seed) {
+		final SecureRandom rnd;
+		try {
+			rnd = SecureRandom.getInstance("SHA1PRNG");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		// Seeding SHA1PRNG before its first use makes its output depend only on the seed
+		rnd.setSeed(BigInteger.valueOf(seed).toByteArray());
+
+		return new RandomnessProvider() {
+			@Override
+			public SecureRandom getRandom() {
+				return rnd;
+			}
+		};
+	}
+
+	/**
+	 * The default provider, with one generator per thread.
+	 */
+	private static class ThreadLocalProvider extends RandomnessProvider {
+		private final ThreadLocal<SecureRandom> random = new ThreadLocal<SecureRandom>() {
+			@Override
+			protected SecureRandom initialValue() {
+				return createGenerator();
+			}
+		};
+
+		@Override
+		public SecureRandom getRandom() {
+			return random.get();
+		}
+
+		/**
+		 * Returns the NIST SP 800-90A DRBG if the platform has it, or SHA1PRNG
+		 * otherwise, seeded from the system entropy source.
+		 */
+		private static SecureRandom createGenerator() {
+			for (String algorithm : new String[] {"DRBG", "SHA1PRNG"}) {
+				try {
+					SecureRandom rnd = SecureRandom.getInstance(algorithm);
+					rnd.setSeed(new SecureRandom().generateSeed(32));
+					return rnd;
+				} catch (NoSuchAlgorithmException e) {
+					// Try the next one
+				}
+			}
+
+			return new SecureRandom();
+		}
+	}
+}
@@ -21,20 +21,40 @@
 package org.irmacard.credentials.idemix;
 
 import org.irmacard.credentials.CredentialsException;
+import org.irmacard.credentials.idemix.info.BinaryKeyFormat;
 import org.irmacard.credentials.idemix.info.IdemixKeyStore;
+import org.irmacard.credentials.idemix.info.KeyCacheFile;
 import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
 import org.irmacard.credentials.idemix.messages.IssueSignatureMessage;
 import org.irmacard.credentials.idemix.proofs.*;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.FixedBaseComb;
+import org.irmacard.credentials.idemix.util.MultiExponentiation;
+import org.irmacard.credentials.idemix.util.RandomnessProvider;
 import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.IssuerIdentifier;
 import org.irmacard.credentials.info.KeyException;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -210,6 +230,10 @@ public class IRMACryptoTest {
 
 		assertTrue(proof.verify(pk, sig, issuer.getContext(), nonce));
 
+		// Without the Q from signing, e.g. after deserialization
+		CLSignature copy = new CLSignature(sig.getA(), sig.get_e(), sig.get_v());
+		assertTrue(issuer.proveSignature(copy, nonce).verify(pk, sig, issuer.getContext(), nonce));
+
 		// Silly nonce test
 		System.out.println("TEST: Will warn that hash doesn't match, that is expected");
 		assertFalse(proof.verify(pk, sig, issuer.getContext(), BigInteger.TEN));
@@ -833,4 +857,1069 @@ public class IRMACryptoTest {
 		ProofD proof = cred.createDisclosureProof(disclosed, context, n_1);
 		assertTrue("Proof of disclosure should verify", proof.verify(pk, context, n_1));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testFixedBaseComb() {
+		Random rnd = new Random();
+		BigInteger base = pk.getGeneratorS();
+
+		FixedBaseComb comb = new FixedBaseComb(base, n, 300);
+		for (int i = 0; i < 20; i++) {
+			BigInteger exponent = new BigInteger(1 + rnd.nextInt(300), rnd);
+			assertEquals(base.modPow(exponent, n), comb.pow(exponent));
+			assertEquals(base.modPow(exponent.negate(), n), comb.pow(exponent.negate()));
+		}
+
+		// Exponents that are too large for the table fall back to modPow
+		BigInteger large = new BigInteger(400, rnd);
+		assertEquals(base.modPow(large, n), comb.pow(large));
+		assertEquals(BigInteger.ONE, comb.pow(BigInteger.ZERO));
+
+		// Recreating the comb from its table, which is spot-checked against the base
+		BigInteger[][] table = new BigInteger[comb.getBlocks()][1 << comb.getRows()];
+		for (int j = 0; j < table.length; j++)
+			for (int u = 0; u < table[j].length; u++)
+				table[j][u] = comb.getTableElement(j, u);
+		FixedBaseComb copy = FixedBaseComb.fromTable(base, n, 300, comb.getRows(), comb.getBlocks(), table);
+		BigInteger exponent = new BigInteger(300, rnd);
+		assertEquals(base.modPow(exponent, n), copy.pow(exponent));
+
+		try {
+			FixedBaseComb.fromTable(R.get(0), n, 300, comb.getRows(), comb.getBlocks(), table);
+			fail("Table for another base should be rejected");
+		} catch (IllegalArgumentException e) { /* expected */ }
+
+		table[1][1] = table[1][1].add(BigInteger.ONE);
+		try {
+			FixedBaseComb.fromTable(base, n, 300, comb.getRows(), comb.getBlocks(), table);
+			fail("Corrupt table should be rejected");
+		} catch (IllegalArgumentException e) { /* expected */ }
+	}
+
+	@Test
+	public void testPrecomputedGeneratorTables() throws CredentialsException {
+		IdemixPublicKey tpk = new IdemixPublicKey(n, Z, S, R);
+		tpk.setCounter(0);
+		tpk.setIssuerIdentifier(pk.getIssuerIdentifier());
+		tpk.precomputeGeneratorTables();
+		assertTrue(tpk.hasGeneratorTables());
+
+		Random rnd = new Random();
+		BigInteger exponent = new BigInteger(tpk.getSystemParameters().get_l_v_commit(), rnd);
+		assertEquals(S.modPow(exponent, n), tpk.modPowS(exponent));
+		assertEquals(R.get(2).modPow(exponent.negate(), n), tpk.modPowR(2, exponent.negate()));
+
+		CLSignature signature = CLSignature.signMessageBlock(sk, tpk, attributes);
+		assertTrue("Signature is not valid", signature.verify(pk, attributes));
+		assertTrue("Signature is not valid", signature.verify(tpk, attributes));
+
+		IdemixSystemParameters params = tpk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+		BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+
+		CredentialBuilder cb = new CredentialBuilder(tpk, attributes, context);
+		IdemixIssuer issuer = new IdemixIssuer(tpk, sk, context);
+		IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(secret, n_1);
+		IssueSignatureMessage msg = issuer.issueSignature(commit_msg, attributes, n_1);
+		IdemixCredential cred = cb.constructCredential(msg);
+
+		ProofD proof = cred.createDisclosureProof(Arrays.asList(1, 2), context, n_1);
+		assertTrue("Proof of disclosure should verify", proof.verify(pk, context, n_1));
+		assertTrue("Proof of disclosure should verify", proof.verify(tpk, context, n_1));
+	}
+
+	@Test
+	public void testMultiExponentiation() {
+		Random rnd = new Random();
+
+		for (int k : new int[] {1, 2, 6, 12}) {
+			List<BigInteger> bases = new ArrayList<>();
+			List<BigInteger> exps = new ArrayList<>();
+			BigInteger expected = BigInteger.ONE;
+			for (int i = 0; i < k; i++) {
+				BigInteger base = R.get(i % R.size()).add(BigInteger.valueOf(i));
+				BigInteger exp = new BigInteger(1 + rnd.nextInt(700), rnd);
+				if (i % 3 == 1) {
+					exp = exp.negate();
+				}
+				bases.add(base);
+				exps.add(exp);
+				expected = expected.multiply(base.modPow(exp, n)).mod(n);
+			}
+
+			assertEquals(expected, MultiExponentiation.straus(bases, exps, n));
+			assertEquals(expected, MultiExponentiation.separate(bases, exps, n));
+			assertEquals(expected, Crypto.multiExponentiate(bases, exps, n));
+		}
+
+		assertEquals(BigInteger.ONE, MultiExponentiation.straus(R, Arrays.asList(BigInteger.ZERO), n));
+		assertEquals(R.get(0).multiply(R.get(1)).mod(n),
+				Crypto.representToBases(R, Arrays.asList(BigInteger.ONE, BigInteger.ONE), n));
+	}
+
+
+	@Test
+	public void testPippenger() {
+		Random rnd = new Random();
+
+		for (int k : new int[] {1, 5, 40, 300}) {
+			List<BigInteger> bases = new ArrayList<>();
+			List<BigInteger> exps = new ArrayList<>();
+			for (int i = 0; i < k; i++) {
+				BigInteger exp = new BigInteger(1 + rnd.nextInt(600), rnd);
+				if (i % 4 == 1) {
+					exp = exp.negate();
+				}
+				bases.add(R.get(i % R.size()).add(BigInteger.valueOf(i)));
+				exps.add(exp);
+			}
+
+			// One much longer exponent, as for S in the protocols
+			bases.add(S);
+			exps.add(new BigInteger(2000, rnd));
+
+			BigInteger expected = MultiExponentiation.separate(bases, exps, n);
+			assertEquals(expected, MultiExponentiation.pippenger(bases, exps, n));
+			assertEquals(expected, MultiExponentiation.multiExponentiate(bases, exps, n));
+		}
+	}
+
+
+	@Test
+	public void testSecretKeyCRT() {
+		Random rnd = new Random();
+		assertEquals(n, sk.get_n());
+
+		for (int i = 0; i < 10; i++) {
+			BigInteger base = new BigInteger(n.bitLength() - 1, rnd);
+			BigInteger exp = new BigInteger(1 + rnd.nextInt(1200), rnd);
+			if (i % 2 == 1) {
+				exp = exp.negate();
+				base = R.get(i % R.size());
+			}
+			assertEquals(base.modPow(exp, n), sk.modPow(base, exp));
+		}
+	}
+
+
+	@Test
+	public void testPrimePool() throws InterruptedException {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger start = Crypto.TWO.pow(params.get_l_e() - 1);
+		BigInteger end = start.add(Crypto.TWO.pow(params.get_l_e_prime() - 1));
+
+		PrimePool pool = PrimePool.start(params, 4, 2);
+		assertSame(pool, PrimePool.start(params, 4, 2));
+		assertSame(pool, PrimePool.get(params));
+		assertEquals(4, pool.getCapacity());
+
+		Set<BigInteger> primes = new HashSet<>();
+		try {
+			assertTrue(pool.awaitDepth(4, 10000));
+
+			for (int i = 0; i < 4; i++) {
+				BigInteger e = PrimePool.nextPrime(params);
+				assertTrue(e.compareTo(start) >= 0 && e.compareTo(end) < 0);
+				assertTrue(e.isProbablePrime(80));
+				assertTrue("Each prime is handed out once", primes.add(e));
+			}
+			assertEquals(4, pool.getHits());
+			assertEquals(0, pool.getMisses());
+
+			CLSignature sig = CLSignature.signMessageBlock(sk, pk, attributes);
+			assertTrue(sig.verify(pk, attributes));
+			assertEquals(5, pool.getHits() + pool.getMisses());
+
+			// Once stopped the pool is no longer refilled, so taking more than it holds is a miss
+			assertTrue(pool.awaitDepth(4, 10000));
+		} finally {
+			pool.stop();
+		}
+
+		assertTrue(pool.isStopped());
+		assertNull(PrimePool.get(params));
+
+		// The signature above may or may not have missed, so count from here
+		long hits = pool.getHits();
+		long misses = pool.getMisses();
+		for (int i = 0; i < 6; i++) {
+			BigInteger e = pool.take();
+			assertTrue(e.compareTo(start) >= 0 && e.compareTo(end) < 0);
+			assertTrue(primes.add(e));
+		}
+		assertEquals(hits + 4, pool.getHits());
+		assertEquals(misses + 2, pool.getMisses());
+	}
+
+
+	@Test
+	public void testNextProbablePrime() {
+		Random rnd = new Random();
+
+		for (int i = 0; i < 20; i++) {
+			BigInteger from = new BigInteger(400 + rnd.nextInt(300), rnd);
+			BigInteger next = from.nextProbablePrime();
+			assertEquals(next, Crypto.nextProbablePrime(from, null));
+			assertEquals(next, Crypto.nextProbablePrime(from, next.add(BigInteger.ONE)));
+			assertNull(Crypto.nextProbablePrime(from, next));
+		}
+	}
+
+
+	@Test
+	public void testExponentPairPool() throws InterruptedException {
+		IdemixSystemParameters params = pk.getSystemParameters();
+
+		ExponentPairPool pool = ExponentPairPool.start(sk, params, 3, 1);
+		assertSame(pool, ExponentPairPool.start(sk, params, 3, 1));
+		assertSame(pool, ExponentPairPool.get(sk));
+
+		try {
+			assertTrue(pool.awaitDepth(3, 10000));
+
+			Set<BigInteger> primes = new HashSet<>();
+			for (int i = 0; i < 2; i++) {
+				ExponentPairPool.ExponentPair pair = pool.take();
+				assertEquals(BigInteger.ONE, pair.get_e().multiply(pair.get_e_inverse()).mod(sk.get_p_prime_q_prime()));
+				assertTrue("Each pair is handed out once", primes.add(pair.get_e()));
+			}
+			assertEquals(2, pool.getHits());
+			assertEquals(0, pool.getMisses());
+
+			CLSignature sig = CLSignature.signMessageBlock(sk, pk, attributes);
+			assertTrue(sig.verify(pk, attributes));
+			assertTrue(primes.add(sig.get_e()));
+			assertEquals(3, pool.getHits());
+			assertEquals(0, pool.getMisses());
+		} finally {
+			pool.stop();
+		}
+
+		assertNull(ExponentPairPool.get(sk));
+	}
+
+
+	@Test
+	public void testVPool() throws InterruptedException {
+		VPool pool = VPool.start(pk, 2, 1);
+		assertSame(pool, VPool.start(pk, 2, 1));
+		assertSame(pool, VPool.get(pk));
+
+		try {
+			assertTrue(pool.awaitDepth(2, 10000));
+
+			VPool.VPair pair = pool.take();
+			assertEquals(pk.getGeneratorS().modPow(pair.get_v(), pk.getModulus()), pair.get_Sv());
+			assertEquals(pk.getSystemParameters().get_l_v(), pair.get_v().bitLength());
+			assertEquals(1, pool.getHits());
+			assertEquals(0, pool.getMisses());
+
+			CLSignature sig = CLSignature.signMessageBlock(sk, pk, attributes);
+			assertTrue(sig.verify(pk, attributes));
+			assertEquals(2, pool.getHits());
+			assertEquals(0, pool.getMisses());
+		} finally {
+			pool.stop();
+		}
+
+		assertNull(VPool.get(pk));
+
+		// Changing S discards the pairs computed with the old one
+		IdemixPublicKey copy = new IdemixPublicKey(n, Z, S, R);
+		pool = VPool.start(copy, 2, 1);
+		try {
+			assertTrue(pool.awaitDepth(2, 10000));
+			BigInteger S2 = S.modPow(Crypto.TWO, n);
+			copy.set_S(S2);
+			for (int i = 0; i < 4; i++) {
+				VPool.VPair pair = pool.take();
+				assertEquals(S2.modPow(pair.get_v(), n), pair.get_Sv());
+			}
+		} finally {
+			pool.stop();
+		}
+	}
+
+
+	@Test
+	public void testPreparedShowingProof() {
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+
+		ProofListBuilder builder = new ProofListBuilder(context, null)
+				.addProofD(cred, Arrays.asList(1, 2))
+				.prepare();
+		assertTrue(builder.isPrepared());
+
+		// The nonce arrives later
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+		builder.setNonce(nonce1);
+		ProofList collection = builder.build();
+		assertFalse(builder.isPrepared());
+		assertTrue("Prepared disclosure proof should verify", collection.verify(context, nonce1, true));
+
+		// Building again must use fresh randomizers
+		ProofList second = builder.build();
+		assertTrue(second.verify(context, nonce1, true));
+		assertFalse(((ProofD) collection.get(0)).getA().equals(((ProofD) second.get(0)).getA()));
+
+		// The same for a single builder
+		ProofDBuilder dbuilder = new ProofDBuilder(cred, Arrays.asList(1, 2));
+		dbuilder.prepare();
+		assertTrue(dbuilder.isPrepared());
+		ProofD proof = (ProofD) dbuilder.createProof(context, nonce1);
+		assertFalse(dbuilder.isPrepared());
+		assertTrue(proof.verify(pk, context, nonce1));
+
+		// Answering a challenge directly also uses up the prepared randomizers
+		builder.prepare();
+		BigInteger challenge = new BigInteger(params.get_l_h(), rnd);
+		ProofList direct = builder.createProofList(challenge);
+		assertFalse(builder.isPrepared());
+		ProofList after = builder.build();
+		assertTrue(after.verify(context, nonce1, true));
+		assertFalse(((ProofD) direct.get(0)).getA().equals(((ProofD) after.get(0)).getA()));
+
+		dbuilder.prepare();
+		dbuilder.createProof(challenge);
+		assertFalse(dbuilder.isPrepared());
+		dbuilder.prepare();
+		dbuilder.generateRandomizers();
+		assertFalse(dbuilder.isPrepared());
+	}
+
+
+	@Test
+	public void testRandomizedSignaturePool() throws InterruptedException {
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+
+		RandomizedSignaturePool pool = RandomizedSignaturePool.start(cred, 3, 1);
+		assertSame(pool, RandomizedSignaturePool.start(cred, 3, 1));
+
+		try {
+			assertTrue(pool.awaitDepth(3, 10000));
+
+			Random rnd = new Random();
+			IdemixSystemParameters params = pk.getSystemParameters();
+			BigInteger context = new BigInteger(params.get_l_h(), rnd);
+			BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+
+			// Every proof uses a different randomized signature
+			Set<BigInteger> As = new HashSet<>();
+			for (int i = 0; i < 5; i++) {
+				ProofD proof = cred.createDisclosureProof(Arrays.asList(1, 2), context, nonce1);
+				assertTrue(proof.verify(pk, context, nonce1));
+				assertTrue(As.add(proof.getA()));
+			}
+			assertTrue(pool.getHits() >= 3);
+			assertEquals(5, pool.getHits() + pool.getMisses());
+
+			// Randomized signatures taken directly from the pool are valid
+			assertTrue(pool.awaitDepth(3, 10000));
+			CLSignature randomized = pool.take();
+			assertTrue(randomized.verify(pk, attributes));
+			assertTrue(As.add(randomized.getA()));
+		} finally {
+			pool.stop();
+		}
+
+		assertNull(RandomizedSignaturePool.get(cred));
+		assertEquals("Stopping should discard the pooled signatures", 0, pool.getDepth());
+	}
+
+
+	@Test
+	public void testRandomnessProvider() {
+		RandomnessProvider provider = RandomnessProvider.getInstance();
+		BigInteger[] values = provider.randomBigIntegers(13, 200);
+		assertEquals(200, values.length);
+		boolean topBitSet = false;
+		for (BigInteger value : values) {
+			assertTrue(value.signum() >= 0 && value.bitLength() <= 13);
+			topBitSet |= value.testBit(12);
+		}
+		assertTrue(topBitSet);
+		assertEquals(0, provider.randomBigIntegers(0, 3)[0].signum());
+
+		// Deterministic randomness gives reproducible proofs
+		try {
+			RandomnessProvider.setInstance(RandomnessProvider.deterministic(42));
+			BigInteger first = Crypto.randomUnsignedInteger(256);
+			ProofD proof1 = new IdemixCredential(pk, attributes, new CLSignature(
+					BigInteger.TEN, BigInteger.ONE, BigInteger.ONE)).createDisclosureProof(
+					Arrays.asList(1), BigInteger.ONE, BigInteger.ONE);
+
+			RandomnessProvider.setInstance(RandomnessProvider.deterministic(42));
+			assertEquals(first, Crypto.randomUnsignedInteger(256));
+			ProofD proof2 = new IdemixCredential(pk, attributes, new CLSignature(
+					BigInteger.TEN, BigInteger.ONE, BigInteger.ONE)).createDisclosureProof(
+					Arrays.asList(1), BigInteger.ONE, BigInteger.ONE);
+			assertEquals(proof1.getA(), proof2.getA());
+			assertEquals(proof1.get_e_response(), proof2.get_e_response());
+		} finally {
+			RandomnessProvider.setInstance(null);
+		}
+	}
+
+
+	@Test
+	public void testBatchVerifyProofD() {
+		IdemixPublicKey tpk = new IdemixPublicKey(n, Z, S, R);
+		tpk.setCounter(0);
+		tpk.setIssuerIdentifier(pk.getIssuerIdentifier());
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = tpk.getSystemParameters();
+		IdemixCredential cred = new IdemixCredential(tpk, attributes,
+				CLSignature.signMessageBlock(sk, tpk, attributes));
+
+		List<ProofD> proofs = new ArrayList<>();
+		List<BigInteger> contexts = new ArrayList<>();
+		List<BigInteger> nonces = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			BigInteger context = new BigInteger(params.get_l_h(), rnd);
+			BigInteger nonce = new BigInteger(params.get_l_statzk(), rnd);
+			proofs.add(cred.createDisclosureProof(Arrays.asList(1, i % 2 + 2), context, nonce));
+			contexts.add(context);
+			nonces.add(nonce);
+		}
+
+		assertEquals(Collections.<Integer>emptyList(), ProofD.verifyBatch(tpk, proofs, contexts, nonces));
+		assertFalse("Batch verification should leave the key alone", tpk.hasGeneratorTables());
+
+		System.out.println("TEST: Will warn that hash doesn't match, that is expected");
+		nonces.set(2, BigInteger.TEN);
+		nonces.set(5, BigInteger.TEN);
+		assertEquals(Arrays.asList(2, 5), ProofD.verifyBatch(tpk, proofs, contexts, nonces));
+
+		// Same results with the tables built by the caller
+		tpk.precomputeGeneratorTables();
+		assertEquals(Arrays.asList(2, 5), ProofD.verifyBatch(tpk, proofs, contexts, nonces));
+
+		// An attribute that is both disclosed and hidden
+		ProofD proof = proofs.get(0);
+		HashMap<Integer, BigInteger> disclosed = new HashMap<>(proof.get_a_disclosed());
+		disclosed.put(0, BigInteger.ONE);
+		proofs.set(0, new ProofD(proof.get_c(), proof.getA(), proof.get_e_response(),
+				proof.get_v_response(), proof.get_a_responses(), disclosed));
+		System.out.println("TEST: Will warn that an attribute is both disclosed and hidden, that is expected");
+		assertEquals(Arrays.asList(0, 2, 5), ProofD.verifyBatch(tpk, proofs, contexts, nonces));
+
+		// Such a proof is rejected, not thrown on, when it arrives in a proof list
+		ProofList list = new ProofList();
+		list.add(proofs.get(0));
+		list.addPublicKey(tpk);
+		assertFalse(list.isBound(contexts.get(0), nonces.get(0)));
+		assertFalse(list.verify(contexts.get(0), nonces.get(0), true));
+		assertFalse(list.verify(contexts.get(0), nonces.get(0), false));
+	}
+
+
+	@Test
+	public void testBatchVerifyCLSignatures() {
+		Random rnd = new Random();
+		List<CLSignature> signatures = new ArrayList<>();
+		List<List<BigInteger>> blocks = new ArrayList<>();
+		for (int i = 0; i < 9; i++) {
+			List<BigInteger> block = new ArrayList<>();
+			for (int j = 0; j <= i % 4; j++) {
+				block.add(new BigInteger(pk.getSystemParameters().get_l_m(), rnd));
+			}
+			signatures.add(CLSignature.signMessageBlock(sk, pk, block));
+			blocks.add(block);
+		}
+
+		assertEquals(Collections.<Integer>emptyList(), CLSignature.verifyBatch(pk, signatures, blocks));
+
+		// x = 1 (mod p), x = -1 (mod q) has order two and Jacobi symbol -1. Multiplying
+		// two A's by it cancels out in the batch whenever both exponents are odd.
+		BigInteger x = BigInteger.ONE.add(p.multiply(
+				Crypto.TWO.negate().multiply(p.modInverse(q)).mod(q)));
+		assertEquals(BigInteger.ONE, x.multiply(x).mod(n));
+		assertEquals(-1, Crypto.jacobiSymbol(x, n));
+
+		CLSignature sig1 = signatures.get(1);
+		signatures.set(1, new CLSignature(sig1.getA(), sig1.get_e(), sig1.get_v().add(BigInteger.ONE)));
+		CLSignature sig3 = signatures.get(3);
+		signatures.set(3, new CLSignature(sig3.getA().multiply(x).mod(n), sig3.get_e(), sig3.get_v()));
+		CLSignature sig6 = signatures.get(6);
+		signatures.set(6, new CLSignature(sig6.getA().multiply(x).mod(n), sig6.get_e(), sig6.get_v()));
+		blocks.get(7).set(0, blocks.get(7).get(0).add(BigInteger.ONE));
+		CLSignature sig8 = signatures.get(8);
+		signatures.set(8, new CLSignature(sig8.getA(), BigInteger.valueOf(3), sig8.get_v()));
+
+		System.out.println("TEST: Will warn that prime is out of range, that is expected");
+		assertEquals(Arrays.asList(1, 3, 6, 7, 8), CLSignature.verifyBatch(pk, signatures, blocks));
+
+		// Only the two flipped signatures, so that nothing else makes the batch fail
+		List<CLSignature> flipped = Arrays.asList(signatures.get(0), signatures.get(3),
+				signatures.get(2), signatures.get(6));
+		List<List<BigInteger>> flippedBlocks = Arrays.asList(blocks.get(0), blocks.get(3),
+				blocks.get(2), blocks.get(6));
+		assertEquals(Arrays.asList(1, 3), CLSignature.verifyBatch(pk, flipped, flippedBlocks));
+
+		// Replacing A by n - A is accepted by the batch, every time and whether alone or not, but not by verify()
+		List<CLSignature> negated = new ArrayList<>();
+		List<List<BigInteger>> negatedBlocks = new ArrayList<>();
+		for (int i : Arrays.asList(0, 2, 4, 5)) {
+			CLSignature sig = signatures.get(i);
+			negated.add(i % 4 == 0 ? sig : new CLSignature(n.subtract(sig.getA()), sig.get_e(), sig.get_v()));
+			negatedBlocks.add(blocks.get(i));
+		}
+		assertFalse(negated.get(1).verify(pk, negatedBlocks.get(1)));
+		for (int k = 0; k < 10; k++) {
+			assertEquals(Collections.<Integer>emptyList(), CLSignature.verifyBatch(pk, negated, negatedBlocks));
+		}
+		assertEquals(Collections.<Integer>emptyList(), CLSignature.verifyBatch(pk,
+				negated.subList(1, 2), negatedBlocks.subList(1, 2)));
+	}
+
+	@Test
+	public void testJacobiSymbol() {
+		// Odd moduli, given by their prime factors
+		int[][] moduli = { { 3 }, { 3, 3, 5 }, { 7, 11, 13 } };
+		for (int[] factors : moduli) {
+			BigInteger m = BigInteger.ONE;
+			for (int f : factors) {
+				m = m.multiply(BigInteger.valueOf(f));
+			}
+			for (int a = -50; a < 50; a++) {
+				// Euler's criterion on each prime factor
+				int expected = 1;
+				for (int f : factors) {
+					BigInteger prime = BigInteger.valueOf(f);
+					BigInteger euler = BigInteger.valueOf(a).modPow(prime.shiftRight(1), prime);
+					expected *= euler.signum() == 0 ? 0 : euler.equals(BigInteger.ONE) ? 1 : -1;
+				}
+				assertEquals(expected, Crypto.jacobiSymbol(BigInteger.valueOf(a), m));
+			}
+		}
+
+		// For these keys p = q = 3 (mod 4), so -1 cannot be told apart from 1
+		assertEquals(1, Crypto.jacobiSymbol(n.subtract(BigInteger.ONE), n));
+		assertEquals(1, Crypto.jacobiSymbol(Z, n));
+	}
+
+
+	@Test
+	public void testConcurrentProofListVerification() throws Exception {
+		List<IdemixCredential> creds = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+			creds.add(new IdemixCredential(pk, attributes, CLSignature.signMessageBlock(sk, pk, attributes)));
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+
+		ProofListBuilder builder = new ProofListBuilder(context, nonce1);
+		for (IdemixCredential cred : creds)
+			builder.addProofD(cred, Arrays.asList(1, 2));
+		ProofList collection = builder.build();
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			collection.setExecutor(executor);
+			assertTrue("Concurrently verified proofs should verify", collection.verify(context, nonce1, true));
+			assertTrue("Concurrently verified proofs should verify", collection.verify(context, nonce1, false));
+
+			System.out.println("TEST: Will warn that hash doesn't match, that is expected");
+			BigInteger wrongNonce = nonce1.add(BigInteger.ONE);
+			assertFalse("Proofs should not verify against another nonce", collection.verify(context, wrongNonce, true));
+			assertFalse("Proofs should not verify against another nonce", collection.verify(context, wrongNonce, false));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// Verifying from the only thread of the executor itself must not deadlock
+		final ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			final ProofList shared = collection;
+			final BigInteger ctx = context;
+			final BigInteger nonce = nonce1;
+			shared.setExecutor(single);
+			Future<Boolean> result = single.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return shared.verify(ctx, nonce, true) && shared.verify(ctx, nonce, false);
+				}
+			});
+			assertTrue("Proofs should verify on the executor's own thread", result.get(30, TimeUnit.SECONDS));
+		} finally {
+			single.shutdownNow();
+		}
+	}
+
+
+	@Test
+	public void testBoundVerificationReconstructsOnce() {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+
+		ProofListBuilder builder = new ProofListBuilder(context, nonce1);
+		for (int i = 0; i < 2; i++) {
+			CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+			builder.addProofD(new IdemixCredential(pk, attributes, signature), Arrays.asList(1, 2));
+		}
+		ProofList built = builder.build();
+
+		// Copy the proofs into instances that count how often their challenge contribution is computed
+		final int[] count = new int[1];
+		ProofList collection = new ProofList();
+		for (Proof proof : built) {
+			ProofD d = (ProofD) proof;
+			collection.add(new ProofD(d.get_c(), d.getA(), d.get_e_response(), d.get_v_response(),
+					d.get_a_responses(), d.get_a_disclosed()) {
+				@Override
+				public List<BigInteger> getChallengeContribution(IdemixPublicKey pk) {
+					count[0]++;
+					return super.getChallengeContribution(pk);
+				}
+			});
+			collection.addPublicKey(pk);
+		}
+
+		assertTrue("Bound proofs should verify", collection.verify(context, nonce1, true));
+		assertEquals("Each contribution should be computed once", collection.size(), count[0]);
+	}
+
+
+	@Test
+	public void testAsyncVerifier() throws Exception {
+		IdemixCredential cred = new IdemixCredential(pk, attributes, CLSignature.signMessageBlock(sk, pk, attributes));
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+		ProofD proof = cred.createDisclosureProof(Arrays.asList(1, 2), context, nonce1);
+
+		AsyncVerifier verifier = new AsyncVerifier(1, 1);
+		try {
+			assertTrue("Disclosure proof should verify asynchronously",
+					verifier.verify(proof, pk, context, nonce1).get());
+
+			// Keep the only thread busy from a callback, so that the next request fills the queue
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			Future<Boolean> first = verifier.verify(proof, pk, context, nonce1, new AsyncVerifier.Callback<Boolean>() {
+				@Override
+				public void onSuccess(Boolean result) {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					started.countDown();
+				}
+			});
+			started.await();
+
+			Future<Boolean> queued = verifier.verify(proof, pk, context, nonce1.add(BigInteger.ONE));
+			try {
+				verifier.verify(proof, pk, context, nonce1);
+				fail("Request should have been rejected");
+			} catch (RejectedExecutionException e) {
+				assertEquals(1, verifier.getRejectedCount());
+			}
+
+			release.countDown();
+			assertTrue(first.get());
+			System.out.println("TEST: Will warn that hash doesn't match, that is expected");
+			assertFalse("Proof should not verify against another nonce", queued.get());
+		} finally {
+			verifier.shutdown();
+		}
+	}
+
+
+	@Test
+	public void testIdemixService() throws Exception {
+		final IdemixService service = new IdemixService(2);
+		final Random rnd = new Random();
+		final IdemixSystemParameters params = pk.getSystemParameters();
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		Thread[] sessions = new Thread[4];
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						BigInteger context = new BigInteger(params.get_l_h(), rnd);
+						BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+						BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+
+						CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+						IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(secret, n_1);
+						IdemixIssuer issuer = new IdemixIssuer(pk, sk, context);
+						IdemixCredential cred = cb.constructCredential(
+								service.issueSignature(issuer, commit_msg, attributes, n_1));
+
+						BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+						ProofList proofs = new ProofListBuilder(context, nonce1)
+								.addProofD(cred, Arrays.asList(1, 2))
+								.build();
+						if (!service.verify(proofs, context, nonce1, true))
+							throw new AssertionError("Proofs should verify");
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			});
+			sessions[i].start();
+		}
+		for (Thread session : sessions)
+			session.join();
+
+		assertTrue("Sessions should succeed: " + errors, errors.isEmpty());
+		assertEquals("All permits should be released", 2, service.getAvailablePermits());
+	}
+
+
+	@Test
+	public void testConcurrentKeyStore() throws Exception {
+		final IdemixKeyStore store = new IdemixKeyStore();
+		final IssuerIdentifier issuer = new IssuerIdentifier("irma-test.ConcurrentIssuer");
+
+		Thread[] writers = new Thread[4];
+		for (int i = 0; i < writers.length; i++) {
+			final int offset = i;
+			writers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int counter = offset; counter < 100; counter += 4)
+						store.setPublicKey(issuer, pk, counter);
+				}
+			});
+			writers[i].start();
+		}
+		for (Thread writer : writers)
+			writer.join();
+
+		assertEquals(99, store.getKeyCounter(issuer));
+		for (int counter = 0; counter < 100; counter++)
+			assertTrue(store.containsPublicKey(issuer, counter));
+		assertEquals(pk, store.getLatestPublicKey(issuer));
+
+		store.removePublicKeys(issuer);
+		assertFalse(store.containsPublicKey(issuer, 99));
+		try {
+			store.getKeyCounter(issuer);
+			fail("Key counter of removed issuer should not be found");
+		} catch (KeyException e) { /* expected */ }
+	}
+
+
+	@Test
+	public void testBinaryKeyFormat() throws InfoException {
+		IdemixPublicKey copy = new IdemixPublicKey(n, Z, S, R);
+		copy.setCounter(3);
+		copy.setExpiryDate(new Date(1500000000000L));
+		copy.setIssuerIdentifier(pk.getIssuerIdentifier());
+
+		IdemixPublicKey pk2 = BinaryKeyFormat.readPublicKey(
+				new ByteArrayInputStream(BinaryKeyFormat.toBytes(copy)), null);
+		assertEquals(n, pk2.getModulus());
+		assertEquals(Z, pk2.getGeneratorZ());
+		assertEquals(S, pk2.getGeneratorS());
+		assertEquals(R, pk2.getGeneratorsR());
+		assertEquals(3, pk2.getCounter());
+		assertEquals(copy.getExpiryDate(), pk2.getExpiryDate());
+		assertEquals(pk.getIssuerIdentifier(), pk2.getIssuerIdentifier());
+
+		byte[] encoded = BinaryKeyFormat.toBytes(sk, 3);
+		IdemixSecretKey sk2 = BinaryKeyFormat.readSecretKey(new ByteArrayInputStream(encoded));
+		assertEquals(p, sk2.get_p());
+		assertEquals(q, sk2.get_q());
+
+		// A secret key is not a public key, and a truncated key is rejected
+		try {
+			BinaryKeyFormat.readPublicKey(new ByteArrayInputStream(encoded), null);
+			fail("Secret key should not be read as public key");
+		} catch (InfoException e) { /* expected */ }
+		try {
+			BinaryKeyFormat.readSecretKey(new ByteArrayInputStream(Arrays.copyOf(encoded, encoded.length - 1)));
+			fail("Truncated key should not be read");
+		} catch (InfoException e) { /* expected */ }
+
+		// The counter in the encoding must be the requested one
+		assertEquals(p, BinaryKeyFormat.readSecretKey(new ByteArrayInputStream(encoded), 3).get_p());
+		try {
+			BinaryKeyFormat.readSecretKey(new ByteArrayInputStream(encoded), 4);
+			fail("Secret key with another counter should be rejected");
+		} catch (InfoException e) { /* expected */ }
+		try {
+			BinaryKeyFormat.readPublicKey(new ByteArrayInputStream(BinaryKeyFormat.toBytes(copy)), null, 2);
+			fail("Public key with another counter should be rejected");
+		} catch (InfoException e) { /* expected */ }
+
+		// A missing expiry date stays missing
+		copy.setExpiryDate(null);
+		pk2 = BinaryKeyFormat.readPublicKey(new ByteArrayInputStream(BinaryKeyFormat.toBytes(copy)), null, 3);
+		assertNull(pk2.getExpiryDate());
+		assertEquals(R, pk2.getGeneratorsR());
+	}
+
+
+	@Test
+	public void testKeyCacheFile() throws Exception {
+		IdemixPublicKey copy = new IdemixPublicKey(n, Z, S, R);
+		copy.setCounter(2);
+		copy.setExpiryDate(new Date(1500000000000L));
+		copy.precomputeGeneratorTables();
+		IssuerIdentifier issuer = new IssuerIdentifier("irma-test.CachedIssuer");
+
+		IdemixKeyStore store = new IdemixKeyStore();
+		store.setPublicKey(issuer, copy, 2);
+
+		File file = File.createTempFile("keycache", ".bin");
+		try {
+			store.saveCache(file);
+
+			IdemixKeyStore fresh = new IdemixKeyStore();
+			fresh.loadCache(file);
+			assertTrue(fresh.containsPublicKey(issuer, 2));
+			assertEquals(2, fresh.getKeyCounter(issuer));
+
+			IdemixPublicKey cached = fresh.getPublicKey(issuer, 2);
+			assertSame("Key should be decoded only once", cached, fresh.getPublicKey(issuer, 2));
+			assertEquals(R, cached.getGeneratorsR());
+			assertEquals(issuer, cached.getIssuerIdentifier());
+			assertTrue("Tables should be restored", cached.hasGeneratorTables());
+
+			BigInteger exponent = new BigInteger(cached.getSystemParameters().get_l_v_commit(), new Random());
+			assertEquals(S.modPow(exponent, n), cached.modPowS(exponent));
+			assertEquals(R.get(1).modPow(exponent, n), cached.modPowR(1, exponent));
+		} finally {
+			file.delete();
+		}
+	}
+
+
+	@Test
+	public void testBoundedKeyStore() throws Exception {
+		IssuerIdentifier issuer = new IssuerIdentifier("irma-test.BoundedIssuer");
+		List<IdemixPublicKey> keys = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			IdemixPublicKey copy = new IdemixPublicKey(n, Z, S, R);
+			copy.setCounter(i);
+			copy.setExpiryDate(new Date(1500000000000L));
+			copy.setIssuerIdentifier(issuer);
+			keys.add(copy);
+		}
+
+		File file = File.createTempFile("keycache", ".bin");
+		File saved = File.createTempFile("keycache", ".bin");
+		try {
+			KeyCacheFile.write(keys, file);
+
+			IdemixKeyStore store = new IdemixKeyStore();
+			store.setCapacity(2, Long.MAX_VALUE);
+			store.loadCache(file);
+
+			IdemixPublicKey first = store.getPublicKey(issuer, 0);
+			store.getPublicKey(issuer, 1);
+			store.getPublicKey(issuer, 1);
+			store.getPublicKey(issuer, 2);
+			assertEquals(3, store.getMisses());
+			assertEquals(1, store.getHits());
+			assertEquals("Least recently used key should be evicted", 1, store.getEvictions());
+
+			// The evicted key is loaded again from the cache file
+			assertTrue(store.containsPublicKey(issuer, 0));
+			IdemixPublicKey reloaded = store.getPublicKey(issuer, 0);
+			assertNotSame(first, reloaded);
+			assertEquals(first.getGeneratorsR(), reloaded.getGeneratorsR());
+			assertEquals(4, store.getMisses());
+			assertEquals(2, store.getEvictions());
+
+			// Keys that were added directly cannot be loaded again, so they are never evicted
+			store.setCapacity(0, Long.MAX_VALUE);
+			store.setPublicKey(issuer, pk, 3);
+			assertSame(pk, store.getPublicKey(issuer, 3));
+			assertEquals(3, store.getKeyCounter(issuer));
+
+			// Saving reads the discarded keys from their source, without loading them into the store
+			long misses = store.getMisses();
+			long evictions = store.getEvictions();
+			IssuerIdentifier pkIssuer = pk.getIssuerIdentifier();
+			store.saveCache(saved);
+			assertEquals(misses, store.getMisses());
+			assertEquals(evictions, store.getEvictions());
+			assertSame("Saving should not change the keys", pkIssuer, pk.getIssuerIdentifier());
+			KeyCacheFile cache = KeyCacheFile.open(saved);
+			assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3)), cache.getCounters(issuer));
+			assertEquals(R, cache.loadPublicKey(issuer, 1).getGeneratorsR());
+			assertEquals(R, cache.loadPublicKey(issuer, 3).getGeneratorsR());
+
+			// Generator tables built after a key was loaded count towards the capacity once it is requested again
+			long keySize = (3 + R.size()) * (n.bitLength() / 8 + 48);
+			store = new IdemixKeyStore();
+			store.setCapacity(Integer.MAX_VALUE, 3 * keySize);
+			store.loadCache(file);
+			store.getPublicKey(issuer, 0);
+			IdemixPublicKey grown = store.getPublicKey(issuer, 1);
+			assertEquals(0, store.getEvictions());
+			grown.precomputeGeneratorTables();
+			assertSame(grown, store.getPublicKey(issuer, 1));
+			assertTrue("Keys should be evicted once the tables are counted", store.getEvictions() > 0);
+			assertTrue(store.containsPublicKey(issuer, 0));
+		} finally {
+			file.delete();
+			saved.delete();
+		}
+	}
+
+
+	@Test
+	public void testCoalescedKeyDownload() throws Exception {
+		StringBuilder xml = new StringBuilder("<IssuerPublicKey><Counter>0</Counter><ExpiryDate>1500000000</ExpiryDate>")
+				.append("<Elements><n>").append(n).append("</n><Z>").append(Z).append("</Z><S>").append(S)
+				.append("</S><Bases num=\"").append(R.size()).append("\">");
+		for (int i = 0; i < R.size(); i++)
+			xml.append("<Base_").append(i).append(">").append(R.get(i)).append("</Base_").append(i).append(">");
+		final byte[] key = xml.append("</Bases></Elements></IssuerPublicKey>").toString().getBytes("UTF-8");
+
+		// Local stand-in for the scheme manager, which only answers once released
+		final Map<String, Integer> requests = Collections.synchronizedMap(new HashMap<String, Integer>());
+		final CountDownLatch release = new CountDownLatch(1);
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				synchronized (requests) {
+					requests.put(path, requests.containsKey(path) ? requests.get(path) + 1 : 1);
+				}
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				if (path.endsWith("/0.xml")) {
+					exchange.sendResponseHeaders(200, key.length);
+					exchange.getResponseBody().write(key);
+				} else {
+					exchange.sendResponseHeaders(404, -1);
+				}
+				exchange.close();
+			}
+		});
+		ExecutorService handlers = Executors.newCachedThreadPool();
+		server.setExecutor(handlers);
+		server.start();
+
+		try {
+			final String base = "http://127.0.0.1:" + server.getAddress().getPort();
+			IdemixKeyStore store = new IdemixKeyStore() {
+				@Override
+				protected String getPublicKeyUrl(IssuerIdentifier issuer, int counter) {
+					return base + "/" + issuer.getIssuerName() + "/" + String.format(PUBLIC_KEY_FILE, counter);
+				}
+			};
+			IssuerIdentifier issuer = new IssuerIdentifier("irma-test.DownloadIssuer");
+
+			List<Future<IdemixPublicKey>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+				futures.add(store.downloadPublicKeyAsync(issuer, 0, true));
+			for (Future<IdemixPublicKey> future : futures)
+				assertSame("Concurrent requests should share a download", futures.get(0), future);
+
+			release.countDown();
+			IdemixPublicKey downloaded = futures.get(0).get();
+			assertEquals(R, downloaded.getGeneratorsR());
+			assertSame(downloaded, store.getPublicKey(issuer, 0));
+			assertSame(downloaded, store.downloadPublicKeyAsync(issuer, 0).get());
+
+			// The prefetch of the next key fails, which only shows when asking for that key
+			try {
+				store.downloadPublicKeyAsync(issuer, 1).get();
+				fail("Nonexistent key should not be downloaded");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+
+			assertEquals(Integer.valueOf(1), requests.get("/DownloadIssuer/PublicKeys/0.xml"));
+			assertFalse(store.containsPublicKey(issuer, 1));
+
+			// A key whose download just failed is not prefetched again
+			ExecutorService single = Executors.newSingleThreadExecutor();
+			store.setDownloadExecutor(single);
+			Integer missing = requests.get("/DownloadIssuer/PublicKeys/1.xml");
+			for (int i = 0; i < 3; i++)
+				assertSame(downloaded, store.downloadPublicKeyAsync(issuer, 0, true).get());
+			single.shutdown();
+			assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+			assertEquals(missing, requests.get("/DownloadIssuer/PublicKeys/1.xml"));
+
+			// A download that the executor rejects fails instead of leaving its future pending
+			try {
+				store.downloadPublicKeyAsync(issuer, 2);
+				fail("Shut down executor should reject the download");
+			} catch (RejectedExecutionException e) {
+				// Expected
+			}
+			single = Executors.newSingleThreadExecutor();
+			store.setDownloadExecutor(single);
+			try {
+				store.downloadPublicKeyAsync(issuer, 2).get(10, TimeUnit.SECONDS);
+				fail("Nonexistent key should not be downloaded");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			} finally {
+				single.shutdownNow();
+			}
+
+			// Many threads asking for a key at the same time, while its download completes, fetch it only once
+			final IdemixKeyStore fresh = new IdemixKeyStore() {
+				@Override
+				protected String getPublicKeyUrl(IssuerIdentifier issuer, int counter) {
+					return base + "/" + issuer.getIssuerName() + "/" + String.format(PUBLIC_KEY_FILE, counter);
+				}
+			};
+			final IssuerIdentifier freshIssuer = new IssuerIdentifier("irma-test.DownloadIssuer");
+			final CountDownLatch go = new CountDownLatch(1);
+			ExecutorService callers = Executors.newFixedThreadPool(16);
+			try {
+				List<Future<Boolean>> results = new ArrayList<>();
+				for (int t = 0; t < 16; t++) {
+					results.add(callers.submit(new Callable<Boolean>() {
+						@Override
+						public Boolean call() throws Exception {
+							go.await();
+							for (int i = 0; i < 50; i++)
+								if (!R.equals(fresh.downloadPublicKeyAsync(freshIssuer, 0).get().getGeneratorsR()))
+									return false;
+							return true;
+						}
+					}));
+				}
+				go.countDown();
+				for (Future<Boolean> result : results)
+					assertTrue(result.get(30, TimeUnit.SECONDS));
+			} finally {
+				callers.shutdownNow();
+			}
+			assertEquals("Concurrent callers should cause exactly one fetch",
+					Integer.valueOf(2), requests.get("/DownloadIssuer/PublicKeys/0.xml"));
+		} finally {
+			server.stop(0);
+			handlers.shutdownNow();
+		}
+	}
+}
@@ -29,6 +29,7 @@ import java.util.List;
 
 import org.irmacard.credentials.idemix.info.IdemixKeyStore;
 import org.irmacard.credentials.idemix.info.IdemixKeyStoreDeserializer;
+import org.irmacard.credentials.idemix.info.KeyTreeWalker;
 import org.irmacard.credentials.info.*;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -55,9 +56,11 @@ public class LoadKeysTest {
 
 	static public final String schemeManager = "irma-demo";
 
+	static URI core;
+
 	@BeforeClass
 	public static void initializeInformation() throws InfoException {
-		URI core = new File(System.getProperty("user.dir")).toURI().resolve("irma_configuration/");
+		core = new File(System.getProperty("user.dir")).toURI().resolve("irma_configuration/");
 		DescriptionStore.initialize(new DescriptionStoreDeserializer(core));
 		IdemixKeyStore.initialize(new IdemixKeyStoreDeserializer(core));
 	}
@@ -83,6 +86,30 @@ public class LoadKeysTest {
 		}
 	}
 
+	@Test
+	public void loadKeysLazily() throws InfoException, KeyException {
+		IdemixKeyStore store = new IdemixKeyStore();
+		new KeyTreeWalker(new IdemixKeyStoreDeserializer(core))
+				.deserializeIdemixKeyStore(store, KeyTreeWalker.Bootstrap.LAZY);
+		IssuerIdentifier issuer = new IssuerIdentifier(schemeManager, "Surfnet");
+
+		assertTrue(store.containsPublicKey(issuer, 0));
+		assertTrue(store.getPublicKey(issuer, 0).getGeneratorS().equals(S));
+		assertTrue(store.getPublicKey(issuer, 0) == store.getPublicKey(issuer, 0));
+		assertTrue(store.getSecretKey(issuer, 0).get_p().equals(p));
+	}
+
+	@Test
+	public void loadKeysInParallel() throws InfoException, KeyException {
+		IdemixKeyStore store = new IdemixKeyStore();
+		new KeyTreeWalker(new IdemixKeyStoreDeserializer(core))
+				.deserializeIdemixKeyStore(store, KeyTreeWalker.Bootstrap.PARALLEL);
+		IssuerIdentifier issuer = new IssuerIdentifier(schemeManager, "Surfnet");
+
+		assertTrue(store.getPublicKey(issuer, 0).getGeneratorZ().equals(Z));
+		assertTrue(store.getSecretKey(issuer, 0).get_q().equals(q));
+	}
+
 	@Test
 	public void checkSystemParameters() {
 		assertTrue(new IdemixSystemParameters1024().isValid());
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.MultiExponentiation;
+import org.irmacard.credentials.info.InfoException;
+
+/**
+ * Compares the multi-exponentiation algorithms for the sizes of the system
+ * parameters, to find the number of bases at which Pippenger's algorithm
+ * starts to outperform Straus' algorithm. This is not a unit test; run it
+ * using its main method, optionally passing the bitsizes to measure.
+ */
+public class MultiExponentiationBenchmark {
+	private static final int[] COUNTS = {2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+	public static void main(String[] args) throws InfoException {
+		int[] bitsizes = {1024, 2048, 4096};
+		if (args.length > 0) {
+			bitsizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				bitsizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		for (int bitsize : bitsizes) {
+			run(bitsize);
+		}
+	}
+
+	private static void run(int bitsize) throws InfoException {
+		IdemixSystemParameters params = IdemixSystemParameters.get(bitsize);
+		SecureRandom rnd = new SecureRandom();
+
+		BigInteger n = BigInteger.probablePrime(bitsize / 2, rnd)
+				.multiply(BigInteger.probablePrime(bitsize / 2, rnd));
+
+		// Exponents the size of the attribute responses in a disclosure proof
+		int expBits = params.get_l_m_commit() + 1;
+
+		System.out.println("Modulus " + bitsize + " bits, exponents " + expBits + " bits (times in ms)");
+		System.out.println("bases\tseparate\tstraus\tpippenger\tselected");
+		for (int count : COUNTS) {
+			List<BigInteger> bases = new ArrayList<>(count);
+			List<BigInteger> exps = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				bases.add(new BigInteger(bitsize - 1, rnd));
+				exps.add(new BigInteger(expBits, rnd));
+			}
+
+			int reps = Math.max(3, 256 / count);
+
+			// Warm up, and check that all algorithms agree
+			BigInteger expected = MultiExponentiation.separate(bases, exps, n);
+			if (!expected.equals(MultiExponentiation.straus(bases, exps, n))
+					|| !expected.equals(MultiExponentiation.pippenger(bases, exps, n))
+					|| !expected.equals(Crypto.multiExponentiate(bases, exps, n))) {
+				throw new RuntimeException("Multi-exponentiation algorithms disagree");
+			}
+
+			double separate = 0, straus = 0, pippenger = 0, selected = 0;
+			for (int j = 0; j < reps; j++) {
+				long start = System.nanoTime();
+				MultiExponentiation.separate(bases, exps, n);
+				separate += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				MultiExponentiation.straus(bases, exps, n);
+				straus += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				MultiExponentiation.pippenger(bases, exps, n);
+				pippenger += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				Crypto.multiExponentiate(bases, exps, n);
+				selected += System.nanoTime() - start;
+			}
+
+			System.out.printf("%d\t%.2f\t%.2f\t%.2f\t%.2f%n", count,
+					separate / reps / 1e6, straus / reps / 1e6,
+					pippenger / reps / 1e6, selected / reps / 1e6);
+		}
+		System.out.println();
+	}
+}